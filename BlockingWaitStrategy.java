@@ -0,0 +1,65 @@
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A {@link WaitStrategy} that blocks waiting threads on a lock condition until
+ * a queue operation signals them. It uses no CPU while waiting, at the cost of
+ * a wake-up on the other side, which suits batch paths rather than
+ * latency-critical ones. Since it uses a {@link ReentrantLock}, waiting
+ * virtual threads unmount instead of pinning their carrier.
+ *
+ * Signalling only takes the lock when a thread is actually waiting. To make
+ * that safe, the waiter announces itself before its final check of the
+ * condition and the signaller checks for waiters after publishing its
+ * change, with a full fence on both sides, so at least one of them always
+ * sees the other.
+ */
+public class BlockingWaitStrategy implements WaitStrategy {
+
+    /** Guards waiting and signalling. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Signalled whenever the queue changes while a thread is waiting. */
+    private final Condition changed = lock.newCondition();
+
+    /** Number of threads currently waiting, or about to wait. */
+    private volatile int waiters;
+
+    @Override
+    public void await(BooleanSupplier ready) throws InterruptedException {
+        if (ready.getAsBoolean()) {
+            return;
+        }
+        lock.lockInterruptibly();
+        try {
+            waiters++;
+            try {
+                // Order the announcement before the checks below.
+                VarHandle.fullFence();
+                while (!ready.getAsBoolean()) {
+                    changed.await();
+                }
+            } finally {
+                waiters--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void signalAll() {
+        // Order the caller's publishing store before the read of waiters.
+        VarHandle.fullFence();
+        if (waiters > 0) {
+            lock.lock();
+            try {
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
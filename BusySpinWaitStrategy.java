@@ -0,0 +1,32 @@
+import java.util.function.BooleanSupplier;
+
+/**
+ * A {@link WaitStrategy} that re-checks the condition in a tight loop, hinting
+ * the processor with {@link Thread#onSpinWait()}. It has the lowest wake-up
+ * latency, but keeps a core fully busy while waiting, so it suits threads
+ * pinned to dedicated cores on latency-critical paths.
+ */
+public class BusySpinWaitStrategy implements WaitStrategy {
+
+    /** The shared instance; the strategy has no state. */
+    static final BusySpinWaitStrategy INSTANCE = new BusySpinWaitStrategy();
+
+    /** How many spins pass between checks for interruption. */
+    private static final int INTERRUPT_CHECK_MASK = 1023;
+
+    @Override
+    public void await(BooleanSupplier ready) throws InterruptedException {
+        int spins = 0;
+        while (!ready.getAsBoolean()) {
+            if ((++spins & INTERRUPT_CHECK_MASK) == 0 && Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    @Override
+    public void signalAll() {
+        // Spinning threads notice the change themselves.
+    }
+}
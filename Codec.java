@@ -0,0 +1,59 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Converts queue elements to and from bytes, for
+ * {@link MyArrayQueue#snapshotTo} and {@link MyArrayQueue#restoreFrom}.
+ * Implementations write straight into, and read straight out of, the queue's
+ * reusable I/O buffer, so no intermediate byte arrays are needed.
+ *
+ * @param <T> the type of elements handled
+ */
+public interface Codec<T> {
+
+    /** A codec for byte arrays, which are written as they are. */
+    Codec<byte[]> BYTE_ARRAY = new Codec<byte[]>() {
+        @Override
+        public int encodedSize(byte[] element) {
+            return element.length;
+        }
+
+        @Override
+        public void encode(byte[] element, ByteBuffer dst) {
+            dst.put(element);
+        }
+
+        @Override
+        public byte[] decode(ByteBuffer src) {
+            byte[] element = new byte[src.remaining()];
+            src.get(element);
+            return element;
+        }
+    };
+
+    /**
+     * Returns the exact number of bytes {@link #encode} will write for the
+     * element.
+     *
+     * @param element a non-null element
+     * @return the encoded size in bytes.
+     */
+    int encodedSize(T element);
+
+    /**
+     * Writes the element at the buffer's position. The buffer has at least
+     * {@link #encodedSize} bytes remaining.
+     *
+     * @param element a non-null element
+     * @param dst     the buffer to write to
+     */
+    void encode(T element, ByteBuffer dst);
+
+    /**
+     * Reads an element from the buffer. The buffer's remaining bytes are
+     * exactly the bytes written by {@link #encode}.
+     *
+     * @param src the buffer to read from
+     * @return the decoded element.
+     */
+    T decode(ByteBuffer src);
+}
@@ -0,0 +1,411 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * A durable queue of byte-array messages: every enqueue and dequeue is
+ * appended to a write-ahead log file, and an enqueue only returns once its
+ * record has been forced to disk.
+ *
+ * Forcing the log once per message would cap throughput at the disk's sync
+ * rate, so records are group-committed. Enqueuers append their record to a
+ * shared pending batch and wait; a background flusher thread waits up to a
+ * configurable linger time for more records to join the batch (or until the
+ * batch reaches its size limit), writes the whole batch with one write and one
+ * {@link FileChannel#force(boolean)}, and then releases every enqueuer in it.
+ * The more enqueuers there are, the more records each force covers.
+ *
+ * The queue contents are kept in memory in a {@link MyArrayQueue}. Messages
+ * enter it only once they are durable, in log order, so a consumer never sees
+ * a message that could be lost. Dequeue records are appended to the next batch
+ * without waiting, so a crash may redeliver a message that had been dequeued
+ * just before it. On startup the in-memory queue is rebuilt by replaying the
+ * log; a torn record at the end of the log, from a crash in the middle of a
+ * write, is detected by its checksum and cut off.
+ *
+ * The log is never compacted, so it grows with every operation. All methods
+ * are thread-safe.
+ */
+public class JournaledQueue implements AutoCloseable {
+
+    /** Record type for an enqueued message. */
+    private static final byte ENQUEUE = 1;
+
+    /** Record type for a dequeue. */
+    private static final byte DEQUEUE = 2;
+
+    /** Bytes in a record besides the payload: type, length and checksum. */
+    private static final int RECORD_OVERHEAD = 1 + 4 + 4;
+
+    /** The log file. */
+    private final FileChannel channel;
+
+    /** The durable messages; guarded by lock. */
+    private final MyArrayQueue queue = new MyArrayQueue();
+
+    /** Messages in the pending batch, in log order; guarded by lock. */
+    private MyArrayQueue pendingMessages = new MyArrayQueue();
+
+    /** Records waiting for the next flush; guarded by lock. */
+    private ByteBuffer pending = ByteBuffer.allocateDirect(64 * 1024);
+
+    /** A cleared buffer to swap in for pending while a batch is written. */
+    private ByteBuffer spare = ByteBuffer.allocateDirect(64 * 1024);
+
+    /** Checksum calculator for appended records; guarded by lock. */
+    private final CRC32C crc = new CRC32C();
+
+    /** Guards all mutable state. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Signalled when a record is appended or the queue is closed. */
+    private final Condition recordAppended = lock.newCondition();
+
+    /** Signalled when a batch has been forced to disk. */
+    private final Condition batchForced = lock.newCondition();
+
+    /** How long the flusher waits for more records to join a batch. */
+    private final long maxLingerNanos;
+
+    /** Pending bytes at which the flusher stops lingering. */
+    private final int maxBatchBytes;
+
+    /** Number of records appended so far. */
+    private long appendedRecords;
+
+    /** Number of records known to be on disk. */
+    private long durableRecords;
+
+    /** Number of forces done by the flusher. */
+    private long forces;
+
+    /** Set once close() has been called. */
+    private boolean closed;
+
+    /** The error that stopped the flusher, if any. */
+    private IOException failure;
+
+    /** The background thread that writes and forces batches. */
+    private final Thread flusher;
+
+    /**
+     * Opens the queue stored in the given log file, creating it if it does not
+     * exist, and rebuilds the queue contents by replaying the log.
+     *
+     * @param file          the log file
+     * @param maxLinger     how long to wait for more records to join a batch
+     * @param unit          the unit of maxLinger
+     * @param maxBatchBytes pending bytes at which a batch is flushed without
+     *                      waiting for the linger time
+     * @throws IOException if the log cannot be opened or read.
+     */
+    public JournaledQueue(Path file, long maxLinger, TimeUnit unit, int maxBatchBytes) throws IOException {
+        if (maxLinger < 0 || maxBatchBytes < 1) {
+            throw new IllegalArgumentException("Linger must be >= 0 and batch size >= 1");
+        }
+        this.maxLingerNanos = unit.toNanos(maxLinger);
+        this.maxBatchBytes = maxBatchBytes;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            replay();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        flusher = new Thread(this::flushLoop, "journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Adds a message to the tail of the queue and waits until its record is on
+     * disk.
+     *
+     * @param message the bytes of the message
+     * @throws IOException          if the log could not be written.
+     * @throws InterruptedException if interrupted while waiting; the message
+     *                              may or may not have become durable.
+     */
+    public void enqueue(byte[] message) throws IOException, InterruptedException {
+        lock.lock();
+        try {
+            ensureOpen();
+            append(ENQUEUE, message);
+            pendingMessages.enqueue(message);
+            long record = appendedRecords;
+            while (durableRecords < record) {
+                if (failure != null) {
+                    throw failure;
+                }
+                batchForced.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the durable message at the front of the queue and returns it.
+     * The dequeue record is written with the next batch; this method does not
+     * wait for it.
+     *
+     * @return the removed message.
+     * @throws IllegalStateException if the queue is empty.
+     * @throws IOException           if the log can no longer be written.
+     */
+    public byte[] dequeue() throws IllegalStateException, IOException {
+        lock.lock();
+        try {
+            ensureOpen();
+            if (queue.isEmpty()) {
+                throw new IllegalStateException("Queue is empty");
+            }
+            append(DEQUEUE, null);
+            return (byte[]) queue.dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the durable message at the front of the queue and returns it, or
+     * returns null if there is none.
+     *
+     * @return the removed message, or null if the queue is empty.
+     * @throws IOException if the log can no longer be written.
+     */
+    public byte[] poll() throws IOException {
+        lock.lock();
+        try {
+            ensureOpen();
+            if (queue.isEmpty()) {
+                return null;
+            }
+            append(DEQUEUE, null);
+            return (byte[]) queue.dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of durable messages in the queue.
+     *
+     * @return the number of messages.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns how many times the log has been forced to disk. Comparing this
+     * with the number of operations shows the average group-commit batch size.
+     *
+     * @return the number of forces so far.
+     */
+    public long forces() {
+        lock.lock();
+        try {
+            return forces;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flushes any pending records and closes the log.
+     *
+     * @throws IOException if the last batch or the close failed.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            recordAppended.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing the journal");
+        } finally {
+            channel.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Appends a record to the pending batch and wakes the flusher. The caller
+     * holds the lock.
+     *
+     * @param type    the record type
+     * @param payload the message for an enqueue record, or null
+     */
+    private void append(byte type, byte[] payload) {
+        int length = payload == null ? 0 : payload.length;
+        if (pending.remaining() < RECORD_OVERHEAD + length) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(
+                    Math.max(pending.capacity() * 2, pending.position() + RECORD_OVERHEAD + length));
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+        int start = pending.position();
+        pending.put(type).putInt(length);
+        if (payload != null) {
+            pending.put(payload);
+        }
+        crc.reset();
+        crc.update(pending.duplicate().flip().position(start));
+        pending.putInt((int) crc.getValue());
+        appendedRecords++;
+        recordAppended.signal();
+    }
+
+    /**
+     * The flusher thread: waits for records, lingers to let a batch build up,
+     * writes and forces the batch outside the lock, then publishes its
+     * messages and releases the waiting enqueuers.
+     */
+    private void flushLoop() {
+        lock.lock();
+        try {
+            while (true) {
+                while (appendedRecords == durableRecords && !closed) {
+                    recordAppended.awaitUninterruptibly();
+                }
+                if (appendedRecords == durableRecords) {
+                    return;
+                }
+                long deadline = System.nanoTime() + maxLingerNanos;
+                long remaining = maxLingerNanos;
+                while (!closed && remaining > 0 && pending.position() < maxBatchBytes) {
+                    try {
+                        recordAppended.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    remaining = deadline - System.nanoTime();
+                }
+
+                // Swap in empty buffers so enqueuers can keep appending while we write.
+                ByteBuffer batch = pending;
+                pending = spare;
+                MyArrayQueue batchMessages = pendingMessages;
+                pendingMessages = new MyArrayQueue();
+                long batchRecords = appendedRecords;
+                lock.unlock();
+                IOException error = null;
+                try {
+                    batch.flip();
+                    while (batch.hasRemaining()) {
+                        channel.write(batch);
+                    }
+                    channel.force(false);
+                } catch (IOException e) {
+                    error = e;
+                } finally {
+                    lock.lock();
+                }
+                batch.clear();
+                spare = batch;
+                if (error != null) {
+                    failure = error;
+                    batchForced.signalAll();
+                    return;
+                }
+                // The batch is durable: make its messages visible, in log order.
+                batchMessages.drainTo(queue::enqueue, Integer.MAX_VALUE);
+                durableRecords = batchRecords;
+                forces++;
+                batchForced.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rebuilds the queue from the log, and cuts off a torn record at the end.
+     *
+     * @throws IOException if the log cannot be read.
+     */
+    private void replay() throws IOException {
+        long validEnd = 0;
+        CRC32C check = new CRC32C();
+        channel.position(0);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        long size = channel.size();
+        try {
+            while (validEnd < size) {
+                byte type = in.readByte();
+                int length = in.readInt();
+                if ((type != ENQUEUE && type != DEQUEUE) || length < 0
+                        || length > size - validEnd - RECORD_OVERHEAD) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                int storedCrc = in.readInt();
+                check.reset();
+                check.update(type);
+                check.update(ByteBuffer.allocate(4).putInt(length).array());
+                check.update(payload);
+                if ((int) check.getValue() != storedCrc) {
+                    break;
+                }
+                if (type == ENQUEUE) {
+                    queue.enqueue(payload);
+                } else if (queue.poll() == null) {
+                    throw new IOException("Journal dequeues from an empty queue");
+                }
+                validEnd += RECORD_OVERHEAD + length;
+            }
+        } catch (EOFException e) {
+            // A record was cut short by a crash; it is dropped below.
+        }
+        if (validEnd < size) {
+            channel.truncate(validEnd);
+        }
+        channel.position(validEnd);
+    }
+
+    /**
+     * Rejects operations on a closed or failed queue. The caller holds the lock.
+     *
+     * @throws IOException if the flusher has failed.
+     */
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+import java.util.Arrays;
+
+/**
+ * A histogram of non-negative long values, such as latencies in nanoseconds,
+ * with a fixed relative precision over the whole range of long, in the style
+ * of Gil Tene's HdrHistogram.
+ *
+ * The buckets are log-linear. Values below {@code 2^subBucketBits} each get
+ * their own bucket. Above that, every power-of-two range [2^k, 2^(k+1)) is
+ * split into {@code 2^(subBucketBits-1)} equal buckets, so a recorded value is
+ * only ever rounded by less than one part in {@code 2^(subBucketBits-1)}. With
+ * the default of 8 bits that is under 1%, in about 7,300 counters (57 KB).
+ * Recording is a couple of shifts and an array increment, and never allocates,
+ * so it can sit on the path being measured.
+ *
+ * The histogram is not thread-safe; give each recording thread its own and
+ * combine them afterwards with {@link #add}.
+ */
+public class LatencyHistogram {
+
+    /** The default number of bits of precision kept for each value. */
+    public static final int DEFAULT_SUB_BUCKET_BITS = 8;
+
+    /** Number of bits of precision kept for each value. */
+    private final int subBucketBits;
+
+    /** Number of buckets per power of two above the linear range. */
+    private final int subBucketHalfCount;
+
+    /** The bucket counters, indexed by {@link #indexOf}. */
+    private final long[] counts;
+
+    /** Number of values recorded. */
+    private long totalCount;
+
+    /** Largest value recorded, exactly. */
+    private long maxValue;
+
+    /** Sum of all values recorded, for the mean. */
+    private double sum;
+
+    /**
+     * Constructor: Sets up an empty histogram with the default precision.
+     */
+    public LatencyHistogram() {
+        this(DEFAULT_SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Constructor: Sets up an empty histogram that keeps the given number of
+     * bits of precision for each value.
+     *
+     * @param subBucketBits bits of precision, from 2 to 16
+     */
+    public LatencyHistogram(int subBucketBits) {
+        if (subBucketBits < 2 || subBucketBits > 16) {
+            throw new IllegalArgumentException("Sub-bucket bits must be between 2 and 16");
+        }
+        this.subBucketBits = subBucketBits;
+        subBucketHalfCount = 1 << (subBucketBits - 1);
+        // Room for every bucket up to the one holding Long.MAX_VALUE.
+        counts = new long[indexOf(Long.MAX_VALUE) + 1];
+    }
+
+    /**
+     * Records one occurrence of a value.
+     *
+     * @param value the value to record
+     * @throws IllegalArgumentException if the value is negative.
+     */
+    public void recordValue(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Value must be >= 0");
+        }
+        counts[indexOf(value)]++;
+        totalCount++;
+        sum += value;
+        if (value > maxValue) {
+            maxValue = value;
+        }
+    }
+
+    /**
+     * Adds every value recorded in another histogram to this one.
+     *
+     * @param other a histogram with the same precision
+     */
+    public void add(LatencyHistogram other) {
+        if (other.subBucketBits != subBucketBits) {
+            throw new IllegalArgumentException("Histograms must have the same precision");
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        maxValue = Math.max(maxValue, other.maxValue);
+    }
+
+    /**
+     * Removes all recorded values.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        sum = 0;
+        maxValue = 0;
+    }
+
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return the total count.
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Returns the largest value recorded.
+     *
+     * @return the exact maximum, or 0 if the histogram is empty.
+     */
+    public long getMaxValue() {
+        return maxValue;
+    }
+
+    /**
+     * Returns the mean of the recorded values.
+     *
+     * @return the mean, or 0 if the histogram is empty.
+     */
+    public double getMean() {
+        return totalCount == 0 ? 0 : sum / totalCount;
+    }
+
+    /**
+     * Returns the value at a percentile: the smallest value that the given
+     * percentage of recorded values are less than or equal to. The result is
+     * the highest value of its bucket, so it never understates a latency, and
+     * is capped at the exact maximum.
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the value at the percentile, or 0 if the histogram is empty.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        if (totalCount == 0) {
+            return 0;
+        }
+        // The rank of the value we want, counting from 1.
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestEquivalentValue(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    /**
+     * Returns the bucket that holds a value.
+     *
+     * @param value a non-negative value
+     * @return the bucket index.
+     */
+    private int indexOf(long value) {
+        // How far the value must be shifted right to fit in subBucketBits bits.
+        int shift = 64 - Long.numberOfLeadingZeros(value) - subBucketBits;
+        if (shift <= 0) {
+            // The linear range: every value has its own bucket.
+            return (int) value;
+        }
+        // value >>> shift is in [halfCount, 2 * halfCount).
+        return shift * subBucketHalfCount + (int) (value >>> shift);
+    }
+
+    /**
+     * Returns the largest value that falls into a bucket.
+     *
+     * @param index the bucket index
+     * @return the highest value of the bucket.
+     */
+    private long highestEquivalentValue(int index) {
+        int shift = index / subBucketHalfCount - 1;
+        if (shift <= 0) {
+            return index;
+        }
+        long subBucket = index - (long) shift * subBucketHalfCount;
+        // Saturates at Long.MAX_VALUE for the last bucket.
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ * A circular queue of primitive {@code long} values, with the same API as
+ * {@link MyArrayQueue} but without boxing: elements are stored directly in
+ * a {@code long[]}. The backing array length is always a power of two, so
+ * indices are wrapped with a bit mask, and it doubles when full.
+ *
+ * Because there is no null to signal an empty queue, {@link #pollOrDefault}
+ * and {@link #peekOrDefault} return a caller-supplied value instead, so the
+ * empty case never allocates or throws.
+ */
+public class LongArrayQueue {
+
+    /** An array to hold the items in the queue; its length is a power of two. */
+    protected long[] queue;
+
+    /** Index of the item at the front of the queue. */
+    protected int front;
+
+    /** Number of elements currently in the queue. */
+    protected int numElements;
+
+    /** Bit mask used to wrap indices, always queue.length - 1. */
+    protected int mask;
+
+    /**
+     * Constructor: Sets up an empty queue of the specified initial capacity,
+     * rounded up to the next power of two.
+     *
+     * @param capacity the initial capacity of the queue
+     */
+    public LongArrayQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be >= 1");
+        }
+        int length = MyArrayQueue.roundUpToPowerOfTwo(capacity);
+        queue = new long[length];
+        mask = length - 1;
+        front = 0;
+        numElements = 0;
+    }
+
+    /**
+     * Default constructor, creates a queue with the default capacity.
+     */
+    public LongArrayQueue() {
+        this(MyArrayQueue.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Check if the queue is empty.
+     *
+     * @return true if the number of elements is zero, false otherwise.
+     */
+    public boolean isEmpty() {
+        return numElements == 0;
+    }
+
+    /**
+     * Check if the queue is full.
+     *
+     * @return true if the number of elements equals the length of the backing array.
+     */
+    public boolean isFull() {
+        return numElements == queue.length;
+    }
+
+    /**
+     * Returns the number of elements in the queue.
+     *
+     * @return the number of elements.
+     */
+    public int size() {
+        return numElements;
+    }
+
+    /**
+     * Returns the length of the backing array.
+     *
+     * @return the current capacity of the queue.
+     */
+    public int capacity() {
+        return queue.length;
+    }
+
+    /**
+     * Returns the element at the front of the queue without removing it.
+     *
+     * @return the element at the front.
+     * @throws IllegalStateException if the queue is empty.
+     */
+    public long peek() {
+        if (isEmpty()) {
+            throw new IllegalStateException("Queue is empty");
+        }
+        return queue[front];
+    }
+
+    /**
+     * Returns the element at the front of the queue without removing it, or
+     * the given default if the queue is empty.
+     *
+     * @param defaultValue the value to return when the queue is empty
+     * @return the element at the front, or defaultValue.
+     */
+    public long peekOrDefault(long defaultValue) {
+        return isEmpty() ? defaultValue : queue[front];
+    }
+
+    /**
+     * Adds an element to the tail of the queue, doubling the backing array if
+     * it is full.
+     *
+     * @param theElement the element to be added to the queue.
+     * @throws IllegalStateException if the queue already holds 2^30 elements.
+     */
+    public void enqueue(long theElement) {
+        if (isFull()) {
+            if (queue.length == MyArrayQueue.MAX_POWER_OF_TWO_CAPACITY) {
+                throw new IllegalStateException("Queue is full");
+            }
+            resize(queue.length * 2);
+        }
+        queue[(front + numElements) & mask] = theElement;
+        numElements++;
+    }
+
+    /**
+     * Removes an element from the front of the queue and returns it.
+     *
+     * @return the removed element from the front of the queue.
+     * @throws IllegalStateException if the queue is empty.
+     */
+    public long dequeue() throws IllegalStateException {
+        if (isEmpty()) {
+            throw new IllegalStateException("Queue is empty");
+        }
+        return removeFront();
+    }
+
+    /**
+     * Removes an element from the front of the queue and returns it, or
+     * returns the given default if the queue is empty.
+     *
+     * @param defaultValue the value to return when the queue is empty
+     * @return the removed element, or defaultValue.
+     */
+    public long pollOrDefault(long defaultValue) {
+        return isEmpty() ? defaultValue : removeFront();
+    }
+
+    /**
+     * Removes the front element of a non-empty queue.
+     *
+     * @return the removed element.
+     */
+    private long removeFront() {
+        long removedElement = queue[front];
+        front = (front + 1) & mask;
+        numElements--;
+        return removedElement;
+    }
+
+    /**
+     * Grows the backing array, if necessary, so that it can hold at least the
+     * given number of elements without resizing.
+     *
+     * @param minCapacity the desired minimum capacity
+     */
+    public void ensureCapacity(int minCapacity) {
+        if (minCapacity > queue.length) {
+            resize(MyArrayQueue.roundUpToPowerOfTwo(minCapacity));
+        }
+    }
+
+    /**
+     * Replaces the backing array with a new array of the given length, moving
+     * the front element to index 0 with at most two array copies.
+     *
+     * @param newLength the new length, a power of two of at least numElements
+     */
+    protected void resize(int newLength) {
+        QueueResizeEvent event = new QueueResizeEvent();
+        event.begin();
+        int oldLength = queue.length;
+        long[] newQueue = new long[newLength];
+        int firstRun = Math.min(numElements, queue.length - front);
+        System.arraycopy(queue, front, newQueue, 0, firstRun);
+        System.arraycopy(queue, 0, newQueue, firstRun, numElements - firstRun);
+        queue = newQueue;
+        mask = newLength - 1;
+        front = 0;
+        event.commit(getClass(), oldLength, newLength, numElements);
+    }
+
+    /**
+     * Returns the queued elements in FIFO order as a String.
+     *
+     * @return a string representation of the queue contents.
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < numElements; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(queue[(front + i) & mask]);
+        }
+        return sb.append(']').toString();
+    }
+}
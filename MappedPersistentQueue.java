@@ -0,0 +1,412 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * A circular queue of byte-array messages that lives in a memory-mapped file,
+ * so its contents survive a process crash or restart.
+ *
+ * The file starts with a header page holding the data capacity and the front
+ * and rear counters, followed by the circular data region. Each message is
+ * stored in a length-prefixed slot: a four-byte length, a CRC32C checksum,
+ * then the bytes, padded to a multiple of four. The checksum covers the
+ * slot's byte position, the length and the bytes, so a slot that was zeroed
+ * or torn because its pages never reached the disk, or that still holds a
+ * message from an earlier lap, is detected rather than read back as a
+ * message. A slot never wraps around the end of the data
+ * region; if it does not fit, a padding marker is written and the slot starts
+ * again at offset 0. The counters are byte positions that only ever grow, and
+ * are wrapped with a bit mask, so the data capacity is a power of two.
+ *
+ * Enqueue and dequeue are plain writes to mapped memory. A message is written
+ * before the rear counter that makes it visible, so after a process crash the
+ * queue reopens with exactly the messages whose enqueue completed. To also
+ * survive an operating system crash or power loss, the mapping is flushed to
+ * disk with {@link MappedByteBuffer#force()} every configured number of
+ * operations, on {@link #force()} and on {@link #close()}. Mapped pages
+ * are written back in no particular order, so after such a crash the rear
+ * counter may be on disk while the last slots it covers are not. On reopen
+ * the header is read back and the messages between front and rear are
+ * checked and counted; at the first slot that fails its checks, the queue is
+ * cut back to the end of the last good slot, like the torn tail of a
+ * {@link JournaledQueue} log, and the shortened header is flushed.
+ *
+ * Unlike {@link MyArrayQueue}, the queue is bounded by the size of the file
+ * and does not grow: {@link #enqueue} returns false when a message does not
+ * fit. It is not thread-safe.
+ */
+public class MappedPersistentQueue implements AutoCloseable {
+
+    /** Identifies a queue file. */
+    private static final int MAGIC = 0x51554555;
+
+    /** Version of the file layout. */
+    private static final int VERSION = 2;
+
+    /** Size of the header page; the data region starts after it. */
+    private static final int HEADER_BYTES = 4096;
+
+    /** Header offset of the magic number. */
+    private static final int MAGIC_OFFSET = 0;
+
+    /** Header offset of the layout version. */
+    private static final int VERSION_OFFSET = 4;
+
+    /** Header offset of the data capacity. */
+    private static final int CAPACITY_OFFSET = 8;
+
+    /** Header offset of the front counter. */
+    private static final int FRONT_OFFSET = 16;
+
+    /** Header offset of the rear counter. */
+    private static final int REAR_OFFSET = 24;
+
+    /** Length prefix marking the unused tail of the data region. */
+    private static final int PADDING = -1;
+
+    /** Size of a length prefix. */
+    private static final int LENGTH_BYTES = 4;
+
+    /** Size of a slot's length prefix and checksum together. */
+    private static final int SLOT_HEADER_BYTES = LENGTH_BYTES + 4;
+
+    /** The open file. */
+    private final FileChannel channel;
+
+    /** The mapping of the header and data region. */
+    private final MappedByteBuffer buffer;
+
+    /** Size of the data region in bytes; a power of two. */
+    private final int capacity;
+
+    /** Bit mask used to wrap byte positions, always capacity - 1. */
+    private final int mask;
+
+    /** How many operations may pass between flushes, or 0 to only flush on request. */
+    private final int forceInterval;
+
+    /** Byte position of the message at the front of the queue. */
+    private long front;
+
+    /** Byte position just past the last message. */
+    private long rear;
+
+    /** Number of messages currently in the queue. */
+    private int numElements;
+
+    /** Operations since the last flush. */
+    private int unforced;
+
+    /** Computes slot checksums. */
+    private final CRC32C crc = new CRC32C();
+
+    /** Holds a slot's position and length while they are checksummed. */
+    private final ByteBuffer checksummedHeader = ByteBuffer.allocate(Long.BYTES + Integer.BYTES);
+
+    /**
+     * Opens the queue stored in the given file, creating it if it does not
+     * exist. An existing file keeps the data capacity it was created with.
+     *
+     * @param file          the queue file
+     * @param capacity      the size of the data region in bytes for a new file,
+     *                      rounded up to the next power of two
+     * @param forceInterval how many enqueue and dequeue operations may pass
+     *                      between flushes to disk, or 0 to only flush on
+     *                      {@link #force()} and {@link #close()}
+     * @throws IOException if the file cannot be opened, mapped, or is not a
+     *                     queue file.
+     */
+    public MappedPersistentQueue(Path file, int capacity, int forceInterval) throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be >= 1");
+        }
+        if (forceInterval < 0) {
+            throw new IllegalArgumentException("Force interval must be >= 0");
+        }
+        this.forceInterval = forceInterval;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            boolean existing = channel.size() > 0;
+            int dataCapacity = existing ? readCapacity(channel)
+                    : MyArrayQueue.roundUpToPowerOfTwo(Math.max(capacity, SLOT_HEADER_BYTES));
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) HEADER_BYTES + dataCapacity);
+            this.capacity = dataCapacity;
+            mask = dataCapacity - 1;
+            if (existing) {
+                recover();
+            } else {
+                buffer.putInt(MAGIC_OFFSET, MAGIC);
+                buffer.putInt(VERSION_OFFSET, VERSION);
+                buffer.putLong(CAPACITY_OFFSET, dataCapacity);
+                buffer.putLong(FRONT_OFFSET, 0);
+                buffer.putLong(REAR_OFFSET, 0);
+                buffer.force();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Check if the queue is empty.
+     *
+     * @return true if the number of messages is zero, false otherwise.
+     */
+    public boolean isEmpty() {
+        return numElements == 0;
+    }
+
+    /**
+     * Returns the number of messages in the queue.
+     *
+     * @return the number of messages.
+     */
+    public int size() {
+        return numElements;
+    }
+
+    /**
+     * Returns the size of the data region in bytes.
+     *
+     * @return the data capacity.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Adds a message to the tail of the queue.
+     *
+     * @param message the bytes of the message
+     * @return true if the message was added, false if there is not enough room.
+     */
+    public boolean enqueue(byte[] message) {
+        if (message.length > capacity - SLOT_HEADER_BYTES) {
+            return false;
+        }
+        int slotBytes = slotBytes(message.length);
+        int position = (int) rear & mask;
+        int tailRoom = capacity - position;
+
+        // A slot that does not fit before the end of the region starts again at 0.
+        int needed = slotBytes <= tailRoom ? slotBytes : tailRoom + slotBytes;
+        if (rear - front + needed > capacity) {
+            return false;
+        }
+        if (slotBytes > tailRoom) {
+            buffer.putInt(HEADER_BYTES + position, PADDING);
+            position = 0;
+        }
+
+        // Write the message first, then the counter that makes it visible.
+        long slotStart = rear + needed - slotBytes;
+        buffer.putInt(HEADER_BYTES + position, message.length);
+        buffer.put(HEADER_BYTES + position + SLOT_HEADER_BYTES, message);
+        buffer.putInt(HEADER_BYTES + position + LENGTH_BYTES, checksum(slotStart, position, message.length));
+        rear += needed;
+        buffer.putLong(REAR_OFFSET, rear);
+        numElements++;
+        operationDone();
+        return true;
+    }
+
+    /**
+     * Returns a copy of the message at the front of the queue without removing
+     * it.
+     *
+     * @return the front message, or null if the queue is empty.
+     * @throws IOException if the front slot fails its checks.
+     */
+    public byte[] peek() throws IOException {
+        if (isEmpty()) {
+            return null;
+        }
+        int position = skipPadding();
+        byte[] message = new byte[checkedLength(position)];
+        buffer.get(HEADER_BYTES + position + SLOT_HEADER_BYTES, message);
+        return message;
+    }
+
+    /**
+     * Removes the message at the front of the queue and returns it.
+     *
+     * @return the removed message.
+     * @throws IllegalStateException if the queue is empty.
+     * @throws IOException           if the front slot fails its checks.
+     */
+    public byte[] dequeue() throws IllegalStateException, IOException {
+        if (isEmpty()) {
+            throw new IllegalStateException("Queue is empty");
+        }
+        byte[] message = peek();
+        // peek() has already moved front past any padding.
+        front += slotBytes(message.length);
+        buffer.putLong(FRONT_OFFSET, front);
+        numElements--;
+        operationDone();
+        return message;
+    }
+
+    /**
+     * Flushes all changes to the file to disk.
+     */
+    public void force() {
+        buffer.force();
+        unforced = 0;
+    }
+
+    /**
+     * Flushes all changes to disk and closes the file.
+     *
+     * @throws IOException if the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    /**
+     * Counts an operation and flushes if the force interval has been reached.
+     */
+    private void operationDone() {
+        if (forceInterval > 0 && ++unforced >= forceInterval) {
+            force();
+        }
+    }
+
+    /**
+     * Moves front past a padding marker, if the front message starts with one.
+     *
+     * @return the position of the front message in the data region.
+     */
+    private int skipPadding() {
+        int position = (int) front & mask;
+        int tailRoom = capacity - position;
+        if (tailRoom < LENGTH_BYTES || buffer.getInt(HEADER_BYTES + position) == PADDING) {
+            front += tailRoom;
+            position = 0;
+        }
+        return position;
+    }
+
+    /**
+     * Reads the counters from the header of an existing file and counts the
+     * messages between them. A torn or unflushed tail, starting at the first
+     * slot that fails its checks, is cut off by moving rear back.
+     *
+     * @throws IOException if the header is inconsistent.
+     */
+    private void recover() throws IOException {
+        front = buffer.getLong(FRONT_OFFSET);
+        rear = buffer.getLong(REAR_OFFSET);
+        if (front < 0 || rear < front || rear - front > capacity) {
+            throw new IOException("Corrupt queue header");
+        }
+        long saved = front;
+        while (front < rear) {
+            long lastGoodEnd = front;
+            int position = skipPadding();
+            int length = slotLength(position);
+            if (length < 0) {
+                // Drop this slot and everything after it.
+                rear = lastGoodEnd;
+                buffer.putLong(REAR_OFFSET, rear);
+                buffer.force();
+                break;
+            }
+            front += slotBytes(length);
+            numElements++;
+        }
+        front = saved;
+    }
+
+    /**
+     * Reads the length of the slot at front and checks that the slot lies
+     * within the data region and before rear, and that its checksum matches.
+     *
+     * @param position the position of the slot in the data region
+     * @return the length of the message in the slot.
+     * @throws IOException if the slot fails a check.
+     */
+    private int checkedLength(int position) throws IOException {
+        int length = slotLength(position);
+        if (length < 0) {
+            throw new IOException("Corrupt queue data");
+        }
+        return length;
+    }
+
+    /**
+     * Reads the length of the slot at front, if the slot passes the checks of
+     * {@link #checkedLength}.
+     *
+     * @param position the position of the slot in the data region
+     * @return the length of the message in the slot, or -1 if it fails a check.
+     */
+    private int slotLength(int position) {
+        int length = buffer.getInt(HEADER_BYTES + position);
+        if (length < 0 || length > capacity - position - SLOT_HEADER_BYTES || front + slotBytes(length) > rear
+                || buffer.getInt(HEADER_BYTES + position + LENGTH_BYTES) != checksum(front, position, length)) {
+            return -1;
+        }
+        return length;
+    }
+
+    /**
+     * Computes the checksum of a slot from its byte position counter, its
+     * length and the message bytes in the mapping.
+     *
+     * @param slotStart the counter value at which the slot starts
+     * @param position  the position of the slot in the data region
+     * @param length    the message length
+     * @return the CRC32C value.
+     */
+    private int checksum(long slotStart, int position, int length) {
+        crc.reset();
+        checksummedHeader.clear();
+        checksummedHeader.putLong(slotStart).putInt(length).flip();
+        crc.update(checksummedHeader);
+        crc.update(buffer.slice(HEADER_BYTES + position + SLOT_HEADER_BYTES, length));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Reads and validates the data capacity from the header of an existing
+     * file.
+     *
+     * @param channel the open file
+     * @return the data capacity.
+     * @throws IOException if the file is not a queue file.
+     */
+    private static int readCapacity(FileChannel channel) throws IOException {
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+        if (header.getInt(MAGIC_OFFSET) != MAGIC || header.getInt(VERSION_OFFSET) != VERSION) {
+            throw new IOException("Not a queue file");
+        }
+        long dataCapacity = header.getLong(CAPACITY_OFFSET);
+        if (Long.bitCount(dataCapacity) != 1 || dataCapacity > Integer.MAX_VALUE - HEADER_BYTES
+                || channel.size() < HEADER_BYTES + dataCapacity) {
+            throw new IOException("Corrupt queue header");
+        }
+        return (int) dataCapacity;
+    }
+
+    /**
+     * Returns the size of the slot for a message: the length prefix and
+     * checksum plus the bytes, rounded up to a multiple of four so every
+     * prefix stays aligned.
+     *
+     * @param length the message length
+     * @return the slot size in bytes.
+     */
+    private static int slotBytes(int length) {
+        return (SLOT_HEADER_BYTES + length + 3) & ~3;
+    }
+}
@@ -0,0 +1,300 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Objects;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A bounded, lock-free circular queue for any number of producer and consumer
+ * threads, after Dmitry Vyukov's bounded MPMC queue.
+ *
+ * Every slot of the circular array carries a sequence number that says whose
+ * turn it is. Slot {@code i} starts with sequence {@code i}. A producer that
+ * holds producer index {@code p} may fill the slot once its sequence equals
+ * {@code p}, and then sets it to {@code p + 1}. A consumer that holds consumer
+ * index {@code c} may empty the slot once its sequence equals {@code c + 1},
+ * and then sets it to {@code c + capacity}, which is the producer index that
+ * will use the slot on the next lap. Producers and consumers therefore only
+ * coordinate through the one slot they are using plus a compare-and-set on
+ * their own index, never through a global lock.
+ *
+ * The sequence numbers live in a parallel {@code long[]}, so neither
+ * {@link #offer} nor {@link #poll} allocates. Elements from any single
+ * producer are dequeued in the order that producer offered them. The capacity
+ * is rounded up to a power of two, and to at least two: with a single slot,
+ * the sequence a producer publishes, {@code p + 1}, is the one the next
+ * producer waits for, so it would overwrite the element instead of waiting
+ * for a consumer. Null elements are not permitted, since null is the "empty"
+ * result of {@link #poll()}.
+ *
+ * {@link #take()} and {@link #put} wait for the queue to change using the
+ * {@link WaitStrategy} chosen at construction, busy-spinning by default.
+ *
+ * @param <E> the type of elements held in the queue
+ */
+public class MpmcArrayQueue<E> extends MpmcConsumerFields<E> {
+
+    // Padding after the consumer fields, so nothing allocated next to the
+    // queue shares their cache line.
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+
+    /** Checked by consumers waiting in take(). */
+    private final BooleanSupplier notEmpty = () -> !isEmpty();
+
+    /** Checked by producers waiting in put(). */
+    private final BooleanSupplier notFull = () -> size() < capacity();
+
+    /**
+     * Constructor: Sets up an empty queue that can hold at least the given
+     * number of elements.
+     *
+     * @param capacity the capacity, rounded up to the next power of two, at least 2
+     */
+    public MpmcArrayQueue(int capacity) {
+        this(capacity, WaitStrategy.busySpin());
+    }
+
+    /**
+     * Constructor: Sets up an empty queue that can hold at least the given
+     * number of elements, using the given strategy to wait in {@link #take()}
+     * and {@link #put}.
+     *
+     * @param capacity     the capacity, rounded up to the next power of two, at least 2
+     * @param waitStrategy how waiting threads wait for the queue to change
+     */
+    public MpmcArrayQueue(int capacity, WaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+    }
+
+    /**
+     * Adds an element to the tail of the queue. May be called from any thread.
+     *
+     * @param e the element to add
+     * @return true if the element was added, false if the queue is full.
+     * @throws NullPointerException if the element is null.
+     */
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long p = (long) PRODUCER_INDEX.getVolatile(this);
+        while (true) {
+            int slot = (int) p & mask;
+            long difference = (long) SEQUENCES.getAcquire(sequences, slot) - p;
+            if (difference == 0) {
+                // The slot is free for index p; try to claim it.
+                if (PRODUCER_INDEX.compareAndSet(this, p, p + 1)) {
+                    buffer[slot] = e;
+                    // Hand the slot to the consumer that will hold index p.
+                    SEQUENCES.setRelease(sequences, slot, p + 1);
+                    waitStrategy.signalAll();
+                    return true;
+                }
+                p = (long) PRODUCER_INDEX.getVolatile(this);
+            } else if (difference < 0) {
+                // The slot still holds the element from the previous lap.
+                return false;
+            } else {
+                // Another producer claimed index p; catch up.
+                p = (long) PRODUCER_INDEX.getVolatile(this);
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the element at the front of the queue. May be called
+     * from any thread.
+     *
+     * @return the front element, or null if the queue is empty.
+     */
+    public E poll() {
+        long c = (long) CONSUMER_INDEX.getVolatile(this);
+        while (true) {
+            int slot = (int) c & mask;
+            long difference = (long) SEQUENCES.getAcquire(sequences, slot) - (c + 1);
+            if (difference == 0) {
+                // The slot holds the element for index c; try to claim it.
+                if (CONSUMER_INDEX.compareAndSet(this, c, c + 1)) {
+                    E removedElement = buffer[slot];
+                    buffer[slot] = null;
+                    // Hand the slot to the producer that will hold index c + capacity.
+                    SEQUENCES.setRelease(sequences, slot, c + buffer.length);
+                    waitStrategy.signalAll();
+                    return removedElement;
+                }
+                c = (long) CONSUMER_INDEX.getVolatile(this);
+            } else if (difference < 0) {
+                // The slot has not been filled for this lap yet.
+                return null;
+            } else {
+                // Another consumer claimed index c; catch up.
+                c = (long) CONSUMER_INDEX.getVolatile(this);
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the element at the front of the queue, waiting with
+     * the queue's {@link WaitStrategy} while it is empty. May be called
+     * from any thread.
+     *
+     * @return the front element.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public E take() throws InterruptedException {
+        E e = poll();
+        if (e == null) {
+            QueueConsumerWaitEvent event = new QueueConsumerWaitEvent();
+            event.begin();
+            while ((e = poll()) == null) {
+                waitStrategy.await(notEmpty);
+            }
+            event.commit(getClass(), false);
+        }
+        return e;
+    }
+
+    /**
+     * Adds an element to the tail of the queue, waiting with the queue's
+     * {@link WaitStrategy} while it is full. May be called
+     * from any thread.
+     *
+     * @param e the element to add
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void put(E e) throws InterruptedException {
+        if (!offer(e)) {
+            QueueProducerBlockedEvent event = new QueueProducerBlockedEvent();
+            event.begin();
+            while (!offer(e)) {
+                waitStrategy.await(notFull);
+            }
+            event.commit(getClass(), capacity(), false);
+        }
+    }
+
+    /**
+     * Returns the number of elements in the queue. When called while other
+     * threads are active, the result is only a snapshot.
+     *
+     * @return the number of elements.
+     */
+    public int size() {
+        while (true) {
+            long c = (long) CONSUMER_INDEX.getVolatile(this);
+            long p = (long) PRODUCER_INDEX.getVolatile(this);
+            // Re-read the consumer index so the pair is consistent.
+            if (c == (long) CONSUMER_INDEX.getVolatile(this)) {
+                return (int) Math.max(0, Math.min(p - c, buffer.length));
+            }
+        }
+    }
+
+    /**
+     * Check if the queue is empty. When called while other threads are
+     * active, the result is only a snapshot.
+     *
+     * @return true if the queue holds no elements.
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the number of elements the queue can hold.
+     *
+     * @return the capacity of the queue.
+     */
+    public int capacity() {
+        return buffer.length;
+    }
+}
+
+/**
+ * The backing arrays, with padding in front of them so the fields that follow
+ * do not share a cache line with the object header or a preceding object.
+ */
+abstract class MpmcBufferFields<E> {
+
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+
+    /** An array to hold the items in the queue; its length is a power of two. */
+    protected final E[] buffer;
+
+    /** The sequence number of each slot of the buffer. */
+    protected final long[] sequences;
+
+    /** Bit mask used to wrap indices, always buffer.length - 1. */
+    protected final int mask;
+
+    /** How take() and put() wait for the queue to change. */
+    protected final WaitStrategy waitStrategy;
+
+    /** Release/acquire access to the sequence numbers. */
+    protected static final VarHandle SEQUENCES = MethodHandles.arrayElementVarHandle(long[].class);
+
+    @SuppressWarnings("unchecked")
+    MpmcBufferFields(int capacity, WaitStrategy waitStrategy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be >= 1");
+        }
+        // The sequence scheme needs two slots; see the class comment.
+        int length = Math.max(2, MyArrayQueue.roundUpToPowerOfTwo(capacity));
+        buffer = (E[]) new Object[length];
+        sequences = new long[length];
+        for (int i = 0; i < length; i++) {
+            sequences[i] = i;
+        }
+        mask = length - 1;
+        this.waitStrategy = Objects.requireNonNull(waitStrategy);
+    }
+}
+
+/**
+ * Fields shared by the producer threads, on their own cache line.
+ */
+abstract class MpmcProducerFields<E> extends MpmcBufferFields<E> {
+
+    long q00, q01, q02, q03, q04, q05, q06, q07;
+    long q10, q11, q12, q13, q14, q15, q16, q17;
+
+    /** Index of the next slot to fill; advanced by producers with CAS. */
+    protected volatile long producerIndex;
+
+    MpmcProducerFields(int capacity, WaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+    }
+}
+
+/**
+ * Fields shared by the consumer threads, on their own cache line.
+ */
+abstract class MpmcConsumerFields<E> extends MpmcProducerFields<E> {
+
+    long r00, r01, r02, r03, r04, r05, r06, r07;
+    long r10, r11, r12, r13, r14, r15, r16, r17;
+
+    /** Index of the next slot to empty; advanced by consumers with CAS. */
+    protected volatile long consumerIndex;
+
+    /** Access to the producer index. */
+    protected static final VarHandle PRODUCER_INDEX;
+
+    /** Access to the consumer index. */
+    protected static final VarHandle CONSUMER_INDEX;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            PRODUCER_INDEX = lookup.findVarHandle(MpmcProducerFields.class, "producerIndex", long.class);
+            CONSUMER_INDEX = lookup.findVarHandle(MpmcConsumerFields.class, "consumerIndex", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    MpmcConsumerFields(int capacity, WaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+    }
+}
@@ -0,0 +1,380 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * A bounded, lock-free circular queue for any number of producer threads and
+ * a single consumer thread.
+ *
+ * Producers claim a slot by advancing the shared producer index with a
+ * compare-and-set, then publish the element into the claimed slot with a
+ * release store. The consumer owns the consumer index and uses no atomic
+ * read-modify-write operations: it reads each slot with an acquire load, and
+ * a non-null slot is a published element. A null slot below the producer
+ * index means a producer has claimed it but not yet written it, so the
+ * consumer waits briefly for that one slot.
+ *
+ * To avoid reading the consumer's index on every offer, producers share a
+ * cached producer limit (the consumer index plus the capacity) and only
+ * refresh it when the producer index reaches it. Failed compare-and-set
+ * attempts are counted in a {@link LongAdder}, which only costs anything when
+ * producers actually contend, and can be read with {@link #casRetries()}.
+ *
+ * The capacity is rounded up to a power of two. Null elements are not
+ * permitted, since a null slot means "not yet published".
+ *
+ * {@link #take()} and {@link #put} wait for the queue to change using the
+ * {@link WaitStrategy} chosen at construction, busy-spinning by default.
+ *
+ * @param <E> the type of elements held in the queue
+ */
+public class MpscArrayQueue<E> extends MpscConsumerFields<E> {
+
+    // Padding after the consumer fields, so nothing allocated next to the
+    // queue shares their cache line.
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+
+    /** Checked by consumers waiting in take(). */
+    private final BooleanSupplier notEmpty = () -> !isEmpty();
+
+    /** Checked by producers waiting in put(). */
+    private final BooleanSupplier notFull = () -> size() < capacity();
+
+    /**
+     * Constructor: Sets up an empty queue that can hold at least the given
+     * number of elements.
+     *
+     * @param capacity the capacity, rounded up to the next power of two
+     */
+    public MpscArrayQueue(int capacity) {
+        this(capacity, WaitStrategy.busySpin());
+    }
+
+    /**
+     * Constructor: Sets up an empty queue that can hold at least the given
+     * number of elements, using the given strategy to wait in {@link #take()}
+     * and {@link #put}.
+     *
+     * @param capacity     the capacity, rounded up to the next power of two
+     * @param waitStrategy how waiting threads wait for the queue to change
+     */
+    public MpscArrayQueue(int capacity, WaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+    }
+
+    /**
+     * Adds an element to the tail of the queue. May be called from any thread.
+     *
+     * @param e the element to add
+     * @return true if the element was added, false if the queue is full.
+     * @throws NullPointerException if the element is null.
+     */
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long limit = (long) PRODUCER_LIMIT.getAcquire(this);
+        long p;
+        while (true) {
+            p = (long) PRODUCER_INDEX.getVolatile(this);
+            if (p >= limit) {
+                // The cached limit says full; check the consumer's real progress.
+                limit = (long) CONSUMER_INDEX.getAcquire(this) + buffer.length;
+                if (p >= limit) {
+                    return false;
+                }
+                PRODUCER_LIMIT.setRelease(this, limit);
+            }
+            if (PRODUCER_INDEX.compareAndSet(this, p, p + 1)) {
+                break;
+            }
+            casRetries.increment();
+        }
+        // The slot is ours; publishing the element is what makes it visible to the consumer.
+        ELEMENTS.setRelease(buffer, (int) p & mask, e);
+        waitStrategy.signalAll();
+        return true;
+    }
+
+    /**
+     * Removes and returns the element at the front of the queue. Must only be
+     * called from the consumer thread.
+     *
+     * @return the front element, or null if the queue is empty.
+     */
+    public E poll() {
+        long c = consumerIndex;
+        int slot = (int) c & mask;
+        @SuppressWarnings("unchecked")
+        E e = (E) ELEMENTS.getAcquire(buffer, slot);
+        if (e == null) {
+            if (c == (long) PRODUCER_INDEX.getVolatile(this)) {
+                return null;
+            }
+            // A producer has claimed this slot but not yet published into it.
+            e = awaitElement(slot);
+        }
+        removeSlot(c, slot);
+        waitStrategy.signalAll();
+        return e;
+    }
+
+    /**
+     * Returns the element at the front of the queue without removing it. Must
+     * only be called from the consumer thread.
+     *
+     * @return the front element, or null if the queue is empty.
+     */
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        long c = consumerIndex;
+        int slot = (int) c & mask;
+        E e = (E) ELEMENTS.getAcquire(buffer, slot);
+        if (e == null && c != (long) PRODUCER_INDEX.getVolatile(this)) {
+            e = awaitElement(slot);
+        }
+        return e;
+    }
+
+    /**
+     * Removes up to limit published elements and passes them, in FIFO order,
+     * to the given action. Must only be called from the consumer thread. The
+     * drain stops early at the first slot that is empty or still being
+     * written, rather than waiting for a producer.
+     *
+     * @param action the action to receive each removed element
+     * @param limit  the maximum number of elements to remove
+     * @return the number of elements removed, which may be zero.
+     */
+    public int drain(Consumer<? super E> action, int limit) {
+        QueueDrainEvent event = new QueueDrainEvent();
+        event.begin();
+        long c = consumerIndex;
+        int drained = 0;
+        while (drained < limit) {
+            int slot = (int) c & mask;
+            @SuppressWarnings("unchecked")
+            E e = (E) ELEMENTS.getAcquire(buffer, slot);
+            if (e == null) {
+                break;
+            }
+            removeSlot(c, slot);
+            c++;
+            drained++;
+            action.accept(e);
+        }
+        if (drained > 0) {
+            waitStrategy.signalAll();
+            // size() reads the producer index, so skip it when the event is off.
+            event.commit(getClass(), drained, limit, event.isEnabled() ? size() : 0);
+        }
+        return drained;
+    }
+
+    /**
+     * Removes and returns the element at the front of the queue, waiting with
+     * the queue's {@link WaitStrategy} while it is empty. Must only be
+     * called from the consumer thread.
+     *
+     * @return the front element.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public E take() throws InterruptedException {
+        E e = poll();
+        if (e == null) {
+            QueueConsumerWaitEvent event = new QueueConsumerWaitEvent();
+            event.begin();
+            while ((e = poll()) == null) {
+                waitStrategy.await(notEmpty);
+            }
+            event.commit(getClass(), false);
+        }
+        return e;
+    }
+
+    /**
+     * Adds an element to the tail of the queue, waiting with the queue's
+     * {@link WaitStrategy} while it is full. May be called
+     * from any thread.
+     *
+     * @param e the element to add
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void put(E e) throws InterruptedException {
+        if (!offer(e)) {
+            QueueProducerBlockedEvent event = new QueueProducerBlockedEvent();
+            event.begin();
+            while (!offer(e)) {
+                waitStrategy.await(notFull);
+            }
+            event.commit(getClass(), capacity(), false);
+        }
+    }
+
+    /**
+     * Returns the number of elements in the queue, including slots that have
+     * been claimed but not yet published. When called while other threads are
+     * active, the result is only a snapshot.
+     *
+     * @return the number of elements.
+     */
+    public int size() {
+        long c = (long) CONSUMER_INDEX.getAcquire(this);
+        long p = (long) PRODUCER_INDEX.getAcquire(this);
+        return (int) (p - c);
+    }
+
+    /**
+     * Check if the queue is empty. When called while other threads are
+     * active, the result is only a snapshot.
+     *
+     * @return true if the queue holds no elements.
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the number of elements the queue can hold.
+     *
+     * @return the capacity of the queue.
+     */
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Returns how many times a producer lost a compare-and-set race for a slot
+     * and had to retry, since the queue was created. Divided by the number of
+     * successful offers, this is a measure of producer contention.
+     *
+     * @return the total number of failed slot claims.
+     */
+    public long casRetries() {
+        return casRetries.sum();
+    }
+
+    /**
+     * Spins until the producer that claimed the given slot publishes into it.
+     *
+     * @param slot the claimed slot
+     * @return the published element.
+     */
+    @SuppressWarnings("unchecked")
+    private E awaitElement(int slot) {
+        E e;
+        while ((e = (E) ELEMENTS.getAcquire(buffer, slot)) == null) {
+            Thread.onSpinWait();
+        }
+        return e;
+    }
+
+    /**
+     * Clears a consumed slot and advances the consumer index past it. The
+     * release store orders the clearing before the index, so a producer that
+     * sees the new index also sees the empty slot.
+     *
+     * @param c    the consumer index of the slot
+     * @param slot the array position of the slot
+     */
+    private void removeSlot(long c, int slot) {
+        buffer[slot] = null;
+        CONSUMER_INDEX.setRelease(this, c + 1);
+    }
+}
+
+/**
+ * The backing array, with padding in front of it so the fields that follow do
+ * not share a cache line with the object header or a preceding object.
+ */
+abstract class MpscBufferFields<E> {
+
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+
+    /** An array to hold the items in the queue; its length is a power of two. */
+    protected final E[] buffer;
+
+    /** Bit mask used to wrap indices, always buffer.length - 1. */
+    protected final int mask;
+
+    /** How take() and put() wait for the queue to change. */
+    protected final WaitStrategy waitStrategy;
+
+    /** Number of failed producer compare-and-set attempts. */
+    protected final LongAdder casRetries = new LongAdder();
+
+    /** Release/acquire access to the slots of the backing array. */
+    protected static final VarHandle ELEMENTS = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    @SuppressWarnings("unchecked")
+    MpscBufferFields(int capacity, WaitStrategy waitStrategy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be >= 1");
+        }
+        int length = MyArrayQueue.roundUpToPowerOfTwo(capacity);
+        buffer = (E[]) new Object[length];
+        mask = length - 1;
+        this.waitStrategy = Objects.requireNonNull(waitStrategy);
+    }
+}
+
+/**
+ * Fields shared by the producer threads, on their own cache line.
+ */
+abstract class MpscProducerFields<E> extends MpscBufferFields<E> {
+
+    long q00, q01, q02, q03, q04, q05, q06, q07;
+    long q10, q11, q12, q13, q14, q15, q16, q17;
+
+    /** Index of the next slot to claim; advanced by producers with CAS. */
+    protected volatile long producerIndex;
+
+    /** Cached consumer index plus capacity; producers may claim below it. */
+    protected volatile long producerLimit;
+
+    MpscProducerFields(int capacity, WaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+        producerLimit = buffer.length;
+    }
+}
+
+/**
+ * Fields written by the consumer thread, on their own cache line.
+ */
+abstract class MpscConsumerFields<E> extends MpscProducerFields<E> {
+
+    long r00, r01, r02, r03, r04, r05, r06, r07;
+    long r10, r11, r12, r13, r14, r15, r16, r17;
+
+    /** Index of the next slot to empty; written only by the consumer. */
+    protected long consumerIndex;
+
+    /** Access to the producer index. */
+    protected static final VarHandle PRODUCER_INDEX;
+
+    /** Access to the cached producer limit. */
+    protected static final VarHandle PRODUCER_LIMIT;
+
+    /** Release/acquire access to the consumer index. */
+    protected static final VarHandle CONSUMER_INDEX;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            PRODUCER_INDEX = lookup.findVarHandle(MpscProducerFields.class, "producerIndex", long.class);
+            PRODUCER_LIMIT = lookup.findVarHandle(MpscProducerFields.class, "producerLimit", long.class);
+            CONSUMER_INDEX = lookup.findVarHandle(MpscConsumerFields.class, "consumerIndex", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    MpscConsumerFields(int capacity, WaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+    }
+}
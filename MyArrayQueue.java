@@ -1,4 +1,16 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * This class provides a concrete implementation of a Circular Queue
@@ -15,21 +27,95 @@ public class MyArrayQueue {
     /** Number of elements currently in the queue. */
     protected int numElements;
 
+    /**
+     * Bit mask used to wrap indices when the queue runs in power-of-two mode
+     * (always queue.length - 1), or -1 when indices are wrapped with modulo.
+     */
+    protected int mask;
+
+    /** The length of the backing array when the queue was created. */
+    protected final int initialCapacity;
+
+    /** The policy deciding when to shrink the backing array, or null to never shrink. */
+    protected ShrinkPolicy shrinkPolicy;
+
+    /** Operation counters exposed over JMX, or null when statistics are off. */
+    protected QueueStats stats;
+
+    /**
+     * The size at which enqueue() leaves its fast path: the capacity, or with
+     * statistics on, the high-watermark if that is lower. This lets the check
+     * for a full queue also catch a new high-watermark, so tracking it costs
+     * nothing on an ordinary enqueue.
+     */
+    protected int slowPathSize;
+
+    /**
+     * True if enqueueing into a full queue overwrites the oldest element
+     * instead of growing the backing array.
+     */
+    protected boolean overwriteOldest;
+
+    /** Number of elements lost to overwriting since the queue was created. */
+    protected long overwrites;
+
+    /** Direct buffer reused by snapshotTo() and restoreFrom(); allocated on first use. */
+    private ByteBuffer ioBuffer;
+
     /** The default initial capacity of the queue. */
     protected static final int DEFAULT_CAPACITY = 10;
 
+    /** Identifies a snapshot written by snapshotTo(). */
+    private static final int SNAPSHOT_MAGIC = 0x51534e32;
+
+    /** Size of a snapshot header: the magic, the element count and the byte count. */
+    private static final int SNAPSHOT_HEADER_BYTES = Integer.BYTES * 2 + Long.BYTES;
+
+    /** Initial size of the snapshot I/O buffer. */
+    private static final int IO_BUFFER_BYTES = 64 * 1024;
+
+    /** The largest capacity that can be used in power-of-two mode. */
+    protected static final int MAX_POWER_OF_TWO_CAPACITY = 1 << 30;
+
     /**
      * Constructor: Sets up an empty queue of the specified initial capacity.
      *
      * @param capacity the initial capacity of the queue
      */
     public MyArrayQueue(int capacity) {
+        // Delegate to the full constructor using plain modulo indexing.
+        this(capacity, false);
+    }
+
+    /**
+     * Constructor: Sets up an empty queue of the specified initial capacity,
+     * optionally in power-of-two mode. In power-of-two mode the capacity is
+     * rounded up to the next power of two, and every index is wrapped with a
+     * bitwise AND instead of an integer division. Growth still doubles the
+     * backing array, so the length stays a power of two.
+     *
+     * @param capacity   the initial capacity of the queue
+     * @param powerOfTwo true to round the capacity up and use mask-based indexing
+     */
+    public MyArrayQueue(int capacity, boolean powerOfTwo) {
         // Check if the given capacity is at least 1, otherwise throw an exception.
         if (capacity < 1) {
             throw new IllegalArgumentException("Capacity must be >= 1");
         }
-        // Initialize the backing array with the given capacity.
-        queue = new Object[capacity];
+        if (powerOfTwo) {
+            // Round the capacity up so that (length - 1) can be used as a mask.
+            int length = roundUpToPowerOfTwo(capacity);
+            queue = new Object[length];
+            mask = length - 1;
+        } else {
+            // Initialize the backing array with the given capacity.
+            queue = new Object[capacity];
+            // A negative mask means indices are wrapped with modulo.
+            mask = -1;
+        }
+        // Remember the starting length; a shrink policy never goes below it.
+        initialCapacity = queue.length;
+        slowPathSize = queue.length;
         // Set the initial front index to 0.
         front = 0;
         // Initially, there are no elements in the queue.
@@ -44,6 +130,46 @@ public class MyArrayQueue {
         this(DEFAULT_CAPACITY);
     }
 
+    /**
+     * Returns the smallest power of two that is greater than or equal to the
+     * given value.
+     *
+     * @param value a positive value
+     * @return the rounded-up power of two
+     * @throws IllegalArgumentException if the result would exceed the largest
+     *                                  supported power-of-two capacity.
+     */
+    protected static int roundUpToPowerOfTwo(int value) {
+        if (value > MAX_POWER_OF_TWO_CAPACITY) {
+            throw new IllegalArgumentException("Capacity must be <= " + MAX_POWER_OF_TWO_CAPACITY);
+        }
+        return value == 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    /**
+     * Wraps a logical index into the bounds of the backing array. In
+     * power-of-two mode this is a single AND with the mask, otherwise it falls
+     * back to modulo arithmetic.
+     *
+     * @param index a non-negative index, possibly past the end of the array
+     * @return the corresponding position in the backing array
+     */
+    protected final int wrap(int index) {
+        if (mask >= 0) {
+            return index & mask;
+        }
+        return index % queue.length;
+    }
+
+    /**
+     * Check if the queue is running in power-of-two (mask-indexed) mode.
+     *
+     * @return true if indices are wrapped with a bit mask.
+     */
+    public boolean isPowerOfTwo() {
+        return mask >= 0;
+    }
+
     /**
      * Check if the queue is empty.
      *
@@ -53,6 +179,15 @@ public class MyArrayQueue {
         return numElements == 0;
     }
 
+    /**
+     * Returns the number of elements currently in the queue.
+     *
+     * @return the number of elements.
+     */
+    public int size() {
+        return numElements;
+    }
+
     /**
      * Check if the queue is full.
      *
@@ -77,42 +212,239 @@ public class MyArrayQueue {
         }
     }
 
+    /**
+     * Returns the length of the backing array, i.e. how many elements the queue
+     * can hold before it has to grow.
+     *
+     * @return the current capacity of the queue.
+     */
+    public int capacity() {
+        return queue.length;
+    }
+
+    /**
+     * Sets the policy used to shrink the backing array after a burst, so a
+     * queue that once grew large does not keep its peak size forever. The
+     * policy is checked after each removal and never shrinks the queue below
+     * its initial capacity.
+     *
+     * @param shrinkPolicy the policy to use, or null to never shrink (the default)
+     */
+    public void setShrinkPolicy(ShrinkPolicy shrinkPolicy) {
+        this.shrinkPolicy = shrinkPolicy;
+    }
+
+    /**
+     * Switches the queue between growing and overwriting when it is full. In
+     * overwrite mode the capacity stays fixed: enqueueing into a full queue
+     * replaces the element at the front, the oldest, and advances the front,
+     * in O(1) and without allocating, so the queue always holds the most
+     * recent elements. This suits "last N events" history buffers that stay
+     * on permanently with constant memory. Each replaced element is counted
+     * by {@link #overwriteCount()}.
+     *
+     * In overwrite mode a shrink policy has no effect; the capacity only
+     * changes through {@link #ensureCapacity} and {@link #trimToSize}.
+     *
+     * @param overwriteOldest true to overwrite the oldest element when full,
+     *                        false to grow (the default)
+     */
+    public void setOverwriteOldest(boolean overwriteOldest) {
+        this.overwriteOldest = overwriteOldest;
+    }
+
+    /**
+     * Check if the queue overwrites its oldest element when full.
+     *
+     * @return true in overwrite mode, false if the queue grows when full.
+     */
+    public boolean isOverwriteOldest() {
+        return overwriteOldest;
+    }
+
+    /**
+     * Returns how many elements have been overwritten before they could be
+     * dequeued, in overwrite mode.
+     *
+     * @return the number of elements lost to overwriting.
+     */
+    public long overwriteCount() {
+        return overwrites;
+    }
+
+    /**
+     * Starts counting enqueues, dequeues and resizes, and tracking the
+     * high-watermark, and exposes them as a JMX MBean under the given name.
+     * Statistics are off by default; while off, each operation only pays for
+     * a null check.
+     *
+     * @param name the name to register the queue under, unique within the JVM
+     * @return the statistics, which start from zero.
+     * @throws IllegalArgumentException if another queue is registered under the name.
+     * @throws IllegalStateException    if statistics are already enabled.
+     */
+    public QueueStats enableStats(String name) {
+        if (stats != null) {
+            throw new IllegalStateException("Statistics are already enabled");
+        }
+        stats = new QueueStats(this, Objects.requireNonNull(name));
+        updateSlowPathSize();
+        return stats;
+    }
+
+    /**
+     * Stops counting and unregisters the queue's MBean, if statistics are
+     * enabled.
+     */
+    public void disableStats() {
+        if (stats != null) {
+            stats.unregister();
+            stats = null;
+            updateSlowPathSize();
+        }
+    }
+
+    /**
+     * Recomputes slowPathSize after the capacity, the high-watermark or the
+     * statistics setting has changed.
+     */
+    private void updateSlowPathSize() {
+        slowPathSize = stats == null ? queue.length : Math.min(queue.length, stats.highWatermark());
+    }
+
+    /**
+     * Asks the shrink policy whether the backing array should be halved, and
+     * does so if it should. Only called when a policy is set.
+     */
+    private void shrinkIfNeeded() {
+        if (overwriteOldest) {
+            // The capacity is fixed in overwrite mode.
+            return;
+        }
+        int oldLength = queue.length;
+        int newLength = shrinkPolicy.shrunkCapacity(numElements, oldLength, initialCapacity);
+        if (newLength < oldLength) {
+            resize(newLength);
+            shrinkPolicy.shrunk(oldLength, newLength);
+        }
+    }
+
+    /**
+     * Grows the backing array, if necessary, so that it can hold at least the
+     * given number of elements without resizing. Callers can use this to
+     * pre-size the queue before a burst of enqueues. In power-of-two mode the
+     * new capacity is rounded up to the next power of two.
+     *
+     * @param minCapacity the desired minimum capacity
+     */
+    public void ensureCapacity(int minCapacity) {
+        if (minCapacity > queue.length) {
+            resize(mask >= 0 ? roundUpToPowerOfTwo(minCapacity) : minCapacity);
+        }
+    }
+
+    /**
+     * Shrinks the backing array to the smallest capacity that still holds the
+     * current elements (at least 1, and a power of two in power-of-two mode).
+     */
+    public void trimToSize() {
+        int minLength = Math.max(numElements, 1);
+        if (mask >= 0) {
+            minLength = roundUpToPowerOfTwo(minLength);
+        }
+        if (minLength < queue.length) {
+            resize(minLength);
+        }
+    }
+
+    /**
+     * Replaces the backing array with a new array of the given length. The
+     * elements are copied so that the front element ends up at index 0. Since
+     * the live range of a circular array is at most two contiguous runs
+     * ([front, end of array) and [0, rear)), the copy is done with at most two
+     * bulk array copies instead of an element-by-element loop.
+     *
+     * @param newLength the length of the new backing array, at least numElements
+     *                  (and a power of two in power-of-two mode)
+     */
+    protected void resize(int newLength) {
+        QueueResizeEvent event = new QueueResizeEvent();
+        event.begin();
+        int oldLength = queue.length;
+        // Only read the clock when someone is counting.
+        long started = stats != null ? System.nanoTime() : 0;
+        Object[] newQueue = new Object[newLength];
+
+        // Copy the first run, from front up to the end of the array or the last element.
+        int firstRun = Math.min(numElements, queue.length - front);
+        System.arraycopy(queue, front, newQueue, 0, firstRun);
+
+        // Copy the second run, the wrapped-around part starting at index 0 (may be empty).
+        System.arraycopy(queue, 0, newQueue, firstRun, numElements - firstRun);
+
+        // Replace the old queue and reset the front index to 0.
+        queue = newQueue;
+        front = 0;
+
+        // Keep the mask in step with the new length in power-of-two mode.
+        if (mask >= 0) {
+            mask = newLength - 1;
+        }
+
+        if (stats != null) {
+            stats.resized(System.nanoTime() - started);
+        }
+        updateSlowPathSize();
+        event.commit(getClass(), oldLength, newLength, numElements);
+    }
+
     /**
      * Adds an element to the tail of the queue. If the queue is full, the method
      * doubles the size of the backing array and copies the elements such that the
-     * front element is moved to index 0.
+     * front element is moved to index 0; in overwrite mode it replaces the
+     * front element instead.
      *
      * @param theElement the element to be added to the queue.
      */
     public void enqueue(Object theElement) {
-        // Step 1: Check if the queue is full.
-        if (isFull()) {
-            // Create a new array of double the current size.
-            Object[] newQueue = new Object[queue.length * 2];
-
-            // Step 2: Copy elements starting from the 'front' to the new array, 
-            // ensuring the logical order of the queue is maintained.
-            // We use modulo arithmetic to wrap around when reaching the end.
-            for (int i = 0; i < numElements; i++) {
-                newQueue[i] = queue[(front + i) % queue.length];
+        // Step 1: Check if the queue is full. With statistics on, this also
+        // catches the queue growing past its high-watermark.
+        boolean slowPath = numElements >= slowPathSize;
+        if (slowPath && isFull()) {
+            if (overwriteOldest) {
+                // Step 2a: The new element takes the oldest one's slot, which
+                // is the rear of a full ring, and the next oldest becomes the front.
+                queue[front] = theElement;
+                front = wrap(front + 1);
+                overwrites++;
+                if (stats != null) {
+                    stats.enqueued(1);
+                }
+                return;
             }
-    
-            // Step 3: Replace the old queue with the new, larger queue.
-            queue = newQueue;
-    
-            // Step 4: Reset the front index to 0 since we've reindexed the elements.
-            front = 0;
+            // Step 2: Double the backing array. resize() copies the elements in
+            // logical order and resets the front index to 0.
+            resize(queue.length * 2);
         }
     
-        // Step 5: Find the index at which to insert the new element.
+        // Step 3: Find the index at which to insert the new element.
         // This is calculated using the current front and number of elements.
-        int rear = (front + numElements) % queue.length;
+        int rear = wrap(front + numElements);
     
-        // Step 6: Place the new element at the calculated rear position.
+        // Step 4: Place the new element at the calculated rear position.
         queue[rear] = theElement;
     
         // Increase the count of elements in the queue.
         numElements++;
+
+        if (stats != null) {
+            stats.enqueued(1);
+            if (slowPath) {
+                // Possibly a new high-watermark: move the slow path up past it.
+                stats.reached(numElements);
+                slowPathSize = Math.max(slowPathSize, numElements);
+            }
+        }
     }
     
     /**
@@ -128,27 +460,671 @@ public class MyArrayQueue {
         if (isEmpty()) {
             throw new IllegalStateException("Queue is empty");
         }
-        
+        return removeFront();
+    }
+
+    /**
+     * Removes an element from the front of the queue and returns it, or returns
+     * null if the queue is empty. Unlike {@link #dequeue()} this never throws,
+     * so consumers that poll a mostly-empty queue do not pay for constructing
+     * an exception and capturing its stack trace on every miss.
+     *
+     * @return the removed element, or null if the queue is empty.
+     */
+    public Object poll() {
+        return isEmpty() ? null : removeFront();
+    }
+
+    /**
+     * Removes an element from the front of the queue, if there is one, and
+     * passes it to the given action. Since the queue accepts null elements,
+     * this tells an empty queue apart from a queued null, which {@link #poll()}
+     * cannot.
+     *
+     * @param action the action to receive the removed element
+     * @return true if an element was removed, false if the queue was empty.
+     */
+    public boolean tryDequeue(Consumer<Object> action) {
+        if (isEmpty()) {
+            return false;
+        }
+        action.accept(removeFront());
+        return true;
+    }
+
+    /**
+     * Removes the front element of a non-empty queue and returns it.
+     *
+     * @return the removed element.
+     */
+    private Object removeFront() {
         // Retrieve the element at the front of the queue.
         Object removedElement = queue[front];
         
         // Set the current front position to null to assist garbage collection.
         queue[front] = null;
         
-        // Move the front pointer forward in a circular manner.
-        // Use modulo arithmetic to wrap around when reaching the end.
-        front = (front + 1) % queue.length;
+        // Move the front pointer forward in a circular manner,
+        // wrapping around when reaching the end.
+        front = wrap(front + 1);
         
         // Decrement the number of elements since we have removed one.
         numElements--;
+
+        // Release memory after a burst, if a shrink policy is set.
+        if (shrinkPolicy != null) {
+            shrinkIfNeeded();
+        }
         
         // Return the removed element.
         return removedElement;
     }
     
+    /**
+     * Adds a range of elements to the tail of the queue in one batch. The
+     * backing array grows at most once for the whole batch, and the elements
+     * are copied into the ring with at most two array copies. In overwrite
+     * mode the array does not grow; the oldest elements, including any from
+     * the start of the batch, make room for the rest instead.
+     *
+     * @param src the array holding the elements to add
+     * @param off the index of the first element to add
+     * @param len the number of elements to add
+     * @throws IndexOutOfBoundsException if the range is outside of src.
+     */
+    public void enqueueAll(Object[] src, int off, int len) {
+        Objects.checkFromIndexSize(off, len, src.length);
+        int batch = len;
+
+        // Step 1: Grow once, to at least double the size, if the batch does not fit.
+        int required = numElements + len;
+        if (required > queue.length && overwriteOldest) {
+            // Drop queued elements from the front, then the start of the batch
+            // if it is longer than the array. The batch refills every dropped
+            // slot, so they need not be cleared.
+            int excess = required - queue.length;
+            int dropped = Math.min(excess, numElements);
+            front = wrap(front + dropped);
+            numElements -= dropped;
+            off += excess - dropped;
+            len -= excess - dropped;
+            overwrites += excess;
+            required = queue.length;
+        }
+        if (required > queue.length) {
+            int newLength = Math.max(required, queue.length * 2);
+            resize(mask >= 0 ? roundUpToPowerOfTwo(newLength) : newLength);
+        }
+
+        // Step 2: Copy up to the end of the array, then wrap around to index 0.
+        int rear = wrap(front + numElements);
+        int firstRun = Math.min(len, queue.length - rear);
+        System.arraycopy(src, off, queue, rear, firstRun);
+        System.arraycopy(src, off + firstRun, queue, 0, len - firstRun);
+
+        // Step 3: Account for the whole batch at once.
+        numElements = required;
+        if (stats != null) {
+            stats.enqueued(batch);
+            stats.reached(numElements);
+            updateSlowPathSize();
+        }
+    }
+
+    /**
+     * Removes up to max elements from the front of the queue and copies them,
+     * in FIFO order, to the start of the given array. The elements are moved
+     * with at most two array copies.
+     *
+     * @param dst the array to copy the elements into
+     * @param max the maximum number of elements to remove
+     * @return the number of elements removed, which may be zero.
+     */
+    public int drainTo(Object[] dst, int max) {
+        int n = Math.min(Math.min(max, dst.length), numElements);
+        if (n <= 0) {
+            return 0;
+        }
+        QueueDrainEvent event = new QueueDrainEvent();
+        event.begin();
+        int firstRun = Math.min(n, queue.length - front);
+        System.arraycopy(queue, front, dst, 0, firstRun);
+        System.arraycopy(queue, 0, dst, firstRun, n - firstRun);
+        discardFront(n, firstRun);
+        event.commit(getClass(), n, max, numElements);
+        return n;
+    }
+
+    /**
+     * Removes up to max elements from the front of the queue and passes them,
+     * in FIFO order, to the given action. The live range is walked as at most
+     * two contiguous runs, so no index is wrapped per element.
+     *
+     * @param action the action to receive each removed element
+     * @param max    the maximum number of elements to remove
+     * @return the number of elements removed, which may be zero.
+     */
+    public int drainTo(Consumer<Object> action, int max) {
+        int n = Math.min(max, numElements);
+        if (n <= 0) {
+            return 0;
+        }
+        QueueDrainEvent event = new QueueDrainEvent();
+        event.begin();
+        int firstRun = Math.min(n, queue.length - front);
+        for (int i = front, end = front + firstRun; i < end; i++) {
+            action.accept(queue[i]);
+        }
+        for (int i = 0, end = n - firstRun; i < end; i++) {
+            action.accept(queue[i]);
+        }
+        discardFront(n, firstRun);
+        event.commit(getClass(), n, max, numElements);
+        return n;
+    }
+
+    /**
+     * Discards the first n elements after a drain, clearing their slots to
+     * assist garbage collection and advancing the front pointer.
+     *
+     * @param n        the number of elements to discard
+     * @param firstRun how many of them lie between front and the end of the array
+     */
+    private void discardFront(int n, int firstRun) {
+        Arrays.fill(queue, front, front + firstRun, null);
+        Arrays.fill(queue, 0, n - firstRun, null);
+        front = wrap(front + n);
+        numElements -= n;
+        if (shrinkPolicy != null) {
+            shrinkIfNeeded();
+        }
+    }
+
+    /**
+     * Passes every element of the queue, in FIFO order, to the given action
+     * without removing it. Like drainTo, the live range is walked as at most
+     * two contiguous runs, and nothing is allocated. The action must not
+     * modify the queue.
+     *
+     * @param action the action to receive each element
+     */
+    public void forEach(Consumer<Object> action) {
+        Objects.requireNonNull(action);
+        int firstRun = Math.min(numElements, queue.length - front);
+        for (int i = front, end = front + firstRun; i < end; i++) {
+            action.accept(queue[i]);
+        }
+        for (int i = 0, end = numElements - firstRun; i < end; i++) {
+            action.accept(queue[i]);
+        }
+    }
+
+    /**
+     * Copies the elements of the queue, in FIFO order, to the start of the
+     * given array without removing them, with at most two array copies. If
+     * the array is too short, only the oldest elements that fit are copied.
+     * Reusing one array keeps periodic snapshots of a history buffer free of
+     * allocation.
+     *
+     * @param dst the array to copy the elements into
+     * @return the number of elements copied.
+     */
+    public int snapshot(Object[] dst) {
+        int n = Math.min(dst.length, numElements);
+        int firstRun = Math.min(n, queue.length - front);
+        System.arraycopy(queue, front, dst, 0, firstRun);
+        System.arraycopy(queue, 0, dst, firstRun, n - firstRun);
+        return n;
+    }
+
+    /**
+     * Returns a new array holding the elements of the queue, in FIFO order.
+     * The queue is not changed.
+     *
+     * @return the elements, oldest first.
+     */
+    public Object[] snapshot() {
+        Object[] elements = new Object[numElements];
+        snapshot(elements);
+        return elements;
+    }
+
+    /**
+     * Returns the live contents of the queue as at most two slices of the
+     * backing array, in FIFO order: the run from front towards the end of the
+     * array, then, if the contents wrap around, the run from index 0. Callers
+     * can scan the slices with plain indexed loops, or bulk-copy them with
+     * System.arraycopy, without wrapping any index.
+     *
+     * The slices refer to the backing array itself, not a copy, so they are
+     * only valid until the queue is next modified, and must not be written to.
+     *
+     * @return the slices holding the elements.
+     */
+    public Segments asSegments() {
+        int firstRun = Math.min(numElements, queue.length - front);
+        return new Segments(queue, front, firstRun, numElements - firstRun);
+    }
+
+    /**
+     * The elements of a queue as up to two (array, offset, length) slices of
+     * its backing array, in FIFO order, as returned by
+     * {@link MyArrayQueue#asSegments()}. The second slice, when there is one,
+     * always starts at index 0.
+     */
+    public static final class Segments {
+
+        /** The backing array of the queue. */
+        private final Object[] array;
+
+        /** Index of the first element of the first slice. */
+        private final int firstOffset;
+
+        /** Number of elements in the first slice. */
+        private final int firstLength;
+
+        /** Number of elements in the second slice, which starts at index 0. */
+        private final int secondLength;
+
+        /**
+         * Creates the view of two slices.
+         *
+         * @param array        the backing array
+         * @param firstOffset  where the first slice starts
+         * @param firstLength  the length of the first slice
+         * @param secondLength the length of the second slice
+         */
+        Segments(Object[] array, int firstOffset, int firstLength, int secondLength) {
+            this.array = array;
+            this.firstOffset = firstOffset;
+            this.firstLength = firstLength;
+            this.secondLength = secondLength;
+        }
+
+        /**
+         * Returns the number of non-empty slices.
+         *
+         * @return 0 if the queue is empty, 2 if its contents wrap around the
+         *         end of the backing array, and 1 otherwise.
+         */
+        public int count() {
+            return firstLength == 0 ? 0 : secondLength == 0 ? 1 : 2;
+        }
+
+        /**
+         * Returns the array both slices lie in.
+         *
+         * @return the backing array of the queue.
+         */
+        public Object[] array() {
+            return array;
+        }
+
+        /**
+         * Returns where a slice starts.
+         *
+         * @param segment 0 for the first slice, 1 for the second
+         * @return the index of the slice's first element in the array.
+         * @throws IndexOutOfBoundsException if segment is not 0 or 1.
+         */
+        public int offset(int segment) {
+            Objects.checkIndex(segment, 2);
+            return segment == 0 ? firstOffset : 0;
+        }
+
+        /**
+         * Returns the length of a slice.
+         *
+         * @param segment 0 for the first slice, 1 for the second
+         * @return the number of elements in the slice, which is 0 for a slice
+         *         that does not exist.
+         * @throws IndexOutOfBoundsException if segment is not 0 or 1.
+         */
+        public int length(int segment) {
+            Objects.checkIndex(segment, 2);
+            return segment == 0 ? firstLength : secondLength;
+        }
+
+        /**
+         * Returns the total number of elements in both slices.
+         *
+         * @return the size of the queue.
+         */
+        public int size() {
+            return firstLength + secondLength;
+        }
+    }
+
+    /**
+     * Returns a Spliterator over the elements of the queue, in FIFO order. It
+     * reports an exact size, and so does every Spliterator split from it,
+     * which lets a parallel stream divide the work without counting.
+     *
+     * The Spliterator covers the elements queued when it is created, and the
+     * queue must not be modified while it is in use.
+     *
+     * @return a Spliterator over the elements.
+     */
+    public Spliterator<Object> spliterator() {
+        return new RingSpliterator(queue, front, 0, numElements);
+    }
+
+    /**
+     * Returns a sequential Stream over the elements of the queue, in FIFO
+     * order; call parallel() on it to aggregate on several threads. The queue
+     * must not be modified until the stream has finished.
+     *
+     * @return a Stream over the elements.
+     */
+    public Stream<Object> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Splits the live range of a queue by position in FIFO order rather than
+     * by array index, so both halves of a split get the same number of
+     * elements however the range wraps around the end of the array. Each
+     * Spliterator covers positions [origin, fence) counted from the front;
+     * position i is at array index front + i, minus the array length if
+     * that is past the end, so no index is wrapped with modulo.
+     */
+    private static final class RingSpliterator implements Spliterator<Object> {
+
+        /** The backing array of the queue. */
+        private final Object[] array;
+
+        /** Array index of the front of the queue. */
+        private final int front;
+
+        /** Position of the next element, counted from the front. */
+        private int origin;
+
+        /** Position one past the last element, counted from the front. */
+        private final int fence;
+
+        /**
+         * Creates a Spliterator over positions [origin, fence) of a queue.
+         *
+         * @param array  the backing array
+         * @param front  the array index of the front of the queue
+         * @param origin the first position covered
+         * @param fence  one past the last position covered
+         */
+        RingSpliterator(Object[] array, int front, int origin, int fence) {
+            this.array = array;
+            this.front = front;
+            this.origin = origin;
+            this.fence = fence;
+        }
+
+        @Override
+        public Spliterator<Object> trySplit() {
+            int mid = (origin + fence) >>> 1;
+            if (mid <= origin) {
+                return null;
+            }
+            // Hand the first half to the new Spliterator, keep the second.
+            RingSpliterator prefix = new RingSpliterator(array, front, origin, mid);
+            origin = mid;
+            return prefix;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Object> action) {
+            Objects.requireNonNull(action);
+            if (origin >= fence) {
+                return false;
+            }
+            int i = front + origin++;
+            action.accept(array[i < array.length ? i : i - array.length]);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Object> action) {
+            Objects.requireNonNull(action);
+            // Walk the range as up to two contiguous runs of the array.
+            int start = front + origin;
+            int end = front + fence;
+            origin = fence;
+            Object[] a = array;
+            if (start < a.length) {
+                for (int i = start, runEnd = Math.min(end, a.length); i < runEnd; i++) {
+                    action.accept(a[i]);
+                }
+                start = a.length;
+            }
+            for (int i = start - a.length, runEnd = end - a.length; i < runEnd; i++) {
+                action.accept(a[i]);
+            }
+        }
+
+        @Override
+        public long estimateSize() {
+            return fence - origin;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED;
+        }
+    }
+
+    /**
+     * Writes the elements of the queue, in FIFO order, to the given channel.
+     * Only the live range of the ring is written, not the empty slots of the
+     * backing array. The snapshot starts with the element count and the number
+     * of bytes that follow, then holds each element as a length and the bytes
+     * produced by the codec (a length of -1 stands for a null element). The
+     * byte count lets {@link #restoreFrom} stop reading exactly at the end of
+     * the snapshot, and costs one extra encodedSize() call per element.
+     * Everything goes through one reusable
+     * direct buffer, which is written to the channel whenever it fills up.
+     * The queue itself is not changed.
+     *
+     * @param out   the channel to write to
+     * @param codec converts each element to bytes
+     * @param <T>   the type of the queued elements
+     * @throws IOException if writing to the channel fails.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void snapshotTo(WritableByteChannel out, Codec<T> codec) throws IOException {
+        ByteBuffer buffer = ioBuffer(SNAPSHOT_HEADER_BYTES);
+        buffer.clear();
+        buffer.putInt(SNAPSHOT_MAGIC).putInt(numElements).putLong(snapshotBytes(codec));
+
+        // Walk the live range as two contiguous runs: [front, end) and [0, rear).
+        int firstRun = Math.min(numElements, queue.length - front);
+        for (int run = 0; run < 2; run++) {
+            int start = run == 0 ? front : 0;
+            int end = run == 0 ? front + firstRun : numElements - firstRun;
+            for (int i = start; i < end; i++) {
+                T element = (T) queue[i];
+                int size = element == null ? 0 : codec.encodedSize(element);
+                if (buffer.remaining() < Integer.BYTES + size) {
+                    writeFully(out, buffer);
+                    buffer = ioBuffer(Integer.BYTES + size);
+                    buffer.clear();
+                }
+                if (element == null) {
+                    buffer.putInt(-1);
+                } else {
+                    buffer.putInt(size);
+                    codec.encode(element, buffer);
+                }
+            }
+        }
+        writeFully(out, buffer);
+    }
+
+    /**
+     * Returns the number of bytes snapshotTo() writes after the header.
+     *
+     * @param codec converts each element to bytes
+     * @param <T>   the type of the queued elements
+     * @return the total size of the encoded elements and their lengths.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> long snapshotBytes(Codec<T> codec) {
+        long bytes = (long) numElements * Integer.BYTES;
+        int firstRun = Math.min(numElements, queue.length - front);
+        for (int run = 0; run < 2; run++) {
+            int start = run == 0 ? front : 0;
+            int end = run == 0 ? front + firstRun : numElements - firstRun;
+            for (int i = start; i < end; i++) {
+                if (queue[i] != null) {
+                    bytes += codec.encodedSize((T) queue[i]);
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Replaces the contents of the queue with a snapshot written by
+     * {@link #snapshotTo}. The count at the start of the snapshot is used to
+     * size the backing array in a single allocation (never below the initial
+     * capacity), and the elements are decoded straight into it in order.
+     *
+     * The count is checked against the byte count before anything is
+     * allocated, and the byte count against the size of the channel when it
+     * is seekable. Reads stop at the end of the snapshot, so the channel is
+     * left positioned at whatever follows it. The queue is only changed once
+     * the whole snapshot has been read.
+     *
+     * @param in    the channel to read from
+     * @param codec converts bytes back into elements, consuming all the bytes
+     *              it is given
+     * @throws IOException if reading fails or the snapshot is malformed.
+     */
+    public void restoreFrom(ReadableByteChannel in, Codec<?> codec) throws IOException {
+        ByteBuffer buffer = ioBuffer(SNAPSHOT_HEADER_BYTES);
+        buffer.clear().flip();
+        buffer = fill(in, buffer, SNAPSHOT_HEADER_BYTES, SNAPSHOT_HEADER_BYTES);
+        if (buffer.getInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("Not a queue snapshot");
+        }
+        int count = buffer.getInt();
+        long bytes = buffer.getLong();
+        // Every element takes at least its four-byte length.
+        if (count < 0 || bytes < (long) count * Integer.BYTES
+                || count > (mask >= 0 ? MAX_POWER_OF_TWO_CAPACITY : Integer.MAX_VALUE - 8)) {
+            throw new IOException("Corrupt queue snapshot");
+        }
+        if (in instanceof SeekableByteChannel channel && bytes > channel.size() - channel.position()) {
+            throw new EOFException("Truncated queue snapshot");
+        }
+
+        // Size the new backing array once, for the whole snapshot.
+        int length = Math.max(count, initialCapacity);
+        Object[] newQueue = new Object[mask >= 0 ? roundUpToPowerOfTwo(length) : length];
+        for (int i = 0; i < count; i++) {
+            buffer = fill(in, buffer, Integer.BYTES, bytes);
+            int size = buffer.getInt();
+            bytes -= Integer.BYTES;
+            if (size == -1) {
+                // A null element.
+                continue;
+            }
+            if (size < 0 || size > bytes) {
+                throw new IOException("Corrupt queue snapshot");
+            }
+            buffer = fill(in, buffer, size, bytes);
+            int limit = buffer.limit();
+            int end = buffer.position() + size;
+            buffer.limit(end);
+            newQueue[i] = codec.decode(buffer);
+            if (buffer.position() != end) {
+                throw new IOException("Codec did not consume the whole element");
+            }
+            buffer.limit(limit);
+            bytes -= size;
+        }
+        if (bytes != 0) {
+            throw new IOException("Corrupt queue snapshot");
+        }
+        queue = newQueue;
+        if (mask >= 0) {
+            mask = newQueue.length - 1;
+        }
+        front = 0;
+        if (stats != null) {
+            stats.replaced(numElements, count);
+            stats.reached(count);
+        }
+        numElements = count;
+        updateSlowPathSize();
+    }
+
+    /**
+     * Returns the reusable I/O buffer, replacing it with a larger one if it
+     * cannot hold the given number of bytes.
+     *
+     * @param minBytes the number of bytes the buffer must be able to hold
+     * @return the I/O buffer, in an unspecified state.
+     */
+    private ByteBuffer ioBuffer(int minBytes) {
+        if (ioBuffer == null || ioBuffer.capacity() < minBytes) {
+            ioBuffer = ByteBuffer.allocateDirect(Math.max(minBytes, IO_BUFFER_BYTES));
+        }
+        return ioBuffer;
+    }
+
+    /**
+     * Makes sure the buffer, which is in read mode, has at least the given
+     * number of bytes remaining, reading more from the channel as needed.
+     * No more is read than the snapshot has left, so the bytes after it stay
+     * in the channel.
+     *
+     * @param in       the channel to read from
+     * @param buffer   the current I/O buffer, in read mode
+     * @param minBytes the number of bytes needed
+     * @param maxBytes the number of snapshot bytes not yet consumed from the
+     *                 buffer, at least minBytes
+     * @return the I/O buffer, in read mode with at least minBytes remaining.
+     * @throws IOException if the channel ends first.
+     */
+    private ByteBuffer fill(ReadableByteChannel in, ByteBuffer buffer, int minBytes, long maxBytes)
+            throws IOException {
+        if (buffer.remaining() >= minBytes) {
+            return buffer;
+        }
+        if (buffer.capacity() < minBytes) {
+            // Move the unread bytes into a larger buffer.
+            ByteBuffer larger = ByteBuffer.allocateDirect(minBytes);
+            larger.put(buffer).flip();
+            ioBuffer = larger;
+            buffer = larger;
+        }
+        buffer.compact();
+        buffer.limit((int) Math.min(buffer.capacity(), maxBytes));
+        while (buffer.position() < minBytes) {
+            if (in.read(buffer) < 0) {
+                throw new EOFException("Truncated queue snapshot");
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Writes the contents of the buffer, which is in write mode, to the channel.
+     *
+     * @param out    the channel to write to
+     * @param buffer the buffer holding the bytes to write
+     * @throws IOException if writing fails.
+     */
+    private static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
     /**
      * Returns the queue as a String for printing. This method prints the raw
-     * backing array, which may include null entries for empty slots.
+     * backing array, which may include null entries for empty slots. Use
+     * {@link #toString(Appendable, int)} for the elements in FIFO order.
      *
      * @return a string representation of the backing array.
      */
@@ -156,6 +1132,37 @@ public class MyArrayQueue {
         return Arrays.toString(queue);
     }
 
+    /**
+     * Writes the elements of the queue, in FIFO order, to the given
+     * Appendable, formatted like a List: "[a, b, c]". Elements are appended
+     * one at a time, so a large queue can be written to a log or a stream
+     * without first building one big String. At most maxElements elements are
+     * written; if there are more, the list ends with ", ... (n more)".
+     *
+     * @param out         where to write the elements
+     * @param maxElements the maximum number of elements to write
+     * @throws IllegalArgumentException if maxElements is negative.
+     * @throws IOException              if the Appendable fails.
+     */
+    public void toString(Appendable out, int maxElements) throws IOException {
+        if (maxElements < 0) {
+            throw new IllegalArgumentException("Max elements must be >= 0");
+        }
+        int n = Math.min(maxElements, numElements);
+        int firstRun = Math.min(n, queue.length - front);
+        out.append('[');
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                out.append(", ");
+            }
+            out.append(String.valueOf(queue[i < firstRun ? front + i : i - firstRun]));
+        }
+        if (n < numElements) {
+            out.append(n > 0 ? ", ... (" : "... (").append(String.valueOf(numElements - n)).append(" more)");
+        }
+        out.append(']');
+    }
+
     /**
      * Main method simply tests the queue implementation. It performs several
      * enqueue and dequeue operations and prints the raw backing array after each
@@ -230,6 +1237,15 @@ public class MyArrayQueue {
         q.enqueue("h");
         System.out.println("h");
         System.out.println(q.toString());
+
+        // Print the elements in FIFO order rather than as the raw backing array.
+        System.out.println("\n\nFIFO ORDER");
+        try {
+            q.toString(System.out, 10);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.println();
         
         // Now, empty the queue by dequeuing until it is empty.
         while (!q.isEmpty()) {
@@ -248,5 +1264,14 @@ public class MyArrayQueue {
             System.out.println(e.getMessage());
             System.out.println(q.toString());
         }
+
+        // In overwrite mode a full queue drops its oldest element instead of growing.
+        System.out.println("\n\nOVERWRITE OLDEST");
+        MyArrayQueue history = new MyArrayQueue(3);
+        history.setOverwriteOldest(true);
+        for (String s : new String[] { "a", "b", "c", "d", "e" }) {
+            history.enqueue(s);
+        }
+        System.out.println(Arrays.toString(history.snapshot()) + ", overwritten " + history.overwriteCount());
     }
 }
@@ -0,0 +1,631 @@
+import java.util.AbstractQueue;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread-safe {@link BlockingQueue} built on the same circular array as
+ * {@link MyArrayQueue}, guarded by a single {@link ReentrantLock} with
+ * notEmpty and notFull conditions.
+ *
+ * Waiting is done on the conditions rather than with synchronized and
+ * wait/notify, so a virtual thread that blocks in {@link #take()} or
+ * {@link #put} unmounts from its carrier thread instead of pinning it.
+ *
+ * The queue can be bounded or unbounded. An unbounded queue doubles its
+ * backing array when full, like {@link MyArrayQueue#enqueue}, so producers
+ * never block. A bounded queue also starts small and doubles, but never holds
+ * more than its bound; producers block, time out or fail once it is reached.
+ * Null elements are not permitted, since null is the "empty" result of
+ * {@link #poll()}.
+ *
+ * @param <E> the type of elements held in the queue
+ */
+public class MyBlockingArrayQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    /** An array to hold the items in the queue; its length is a power of two. */
+    protected Object[] queue;
+
+    /** Index of the item at the front of the queue. */
+    protected int front;
+
+    /** Number of elements currently in the queue. */
+    protected int numElements;
+
+    /** Bit mask used to wrap indices, always queue.length - 1. */
+    protected int mask;
+
+    /** The most elements the queue may hold, or Integer.MAX_VALUE if unbounded. */
+    protected final int bound;
+
+    /** Guards all access to the fields above. */
+    protected final ReentrantLock lock = new ReentrantLock();
+
+    /** Signalled when an element is added. */
+    protected final Condition notEmpty = lock.newCondition();
+
+    /** Signalled when elements are removed from a bounded queue. */
+    protected final Condition notFull = lock.newCondition();
+
+    /**
+     * Constructor: Sets up an empty unbounded queue of the default initial
+     * capacity.
+     */
+    public MyBlockingArrayQueue() {
+        this(MyArrayQueue.DEFAULT_CAPACITY, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructor: Sets up an empty queue that holds at most bound elements.
+     *
+     * @param bound the maximum number of elements
+     */
+    public MyBlockingArrayQueue(int bound) {
+        this(Math.min(bound, MyArrayQueue.DEFAULT_CAPACITY), bound);
+    }
+
+    /**
+     * Constructor: Sets up an empty queue with the given initial capacity that
+     * holds at most bound elements.
+     *
+     * @param capacity the initial capacity, rounded up to the next power of two
+     * @param bound    the maximum number of elements, or Integer.MAX_VALUE for
+     *                 an unbounded queue
+     */
+    public MyBlockingArrayQueue(int capacity, int bound) {
+        // Check the bound first: the one-argument constructor derives the
+        // capacity from it, so a bad bound would otherwise be reported as a
+        // bad capacity.
+        if (bound < 1) {
+            throw new IllegalArgumentException("Bound must be >= 1");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be >= 1");
+        }
+        int length = MyArrayQueue.roundUpToPowerOfTwo(Math.min(capacity, bound));
+        queue = new Object[length];
+        mask = length - 1;
+        this.bound = bound;
+    }
+
+    /**
+     * Adds an element to the tail of the queue if there is room, without
+     * waiting.
+     *
+     * @param e the element to add
+     * @return true if the element was added, false if the queue is at its bound.
+     */
+    @Override
+    public boolean offer(E e) {
+        checkNotNull(e);
+        lock.lock();
+        try {
+            if (numElements == bound) {
+                return false;
+            }
+            enqueue(e);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds an element to the tail of the queue, waiting for room if the queue
+     * is at its bound.
+     *
+     * @param e the element to add
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @Override
+    public void put(E e) throws InterruptedException {
+        checkNotNull(e);
+        lock.lockInterruptibly();
+        try {
+            QueueProducerBlockedEvent event = null;
+            while (numElements == bound) {
+                if (event == null) {
+                    event = new QueueProducerBlockedEvent();
+                    event.begin();
+                }
+                notFull.await();
+            }
+            if (event != null) {
+                event.commit(getClass(), bound, false);
+            }
+            enqueue(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds an element to the tail of the queue, waiting up to the given time
+     * for room if the queue is at its bound.
+     *
+     * @param e       the element to add
+     * @param timeout how long to wait, in units of unit
+     * @param unit    the unit of the timeout
+     * @return true if the element was added, false if the timeout elapsed first.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        checkNotNull(e);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            QueueProducerBlockedEvent event = null;
+            while (numElements == bound) {
+                if (nanos <= 0) {
+                    if (event != null) {
+                        event.commit(getClass(), bound, true);
+                    }
+                    return false;
+                }
+                if (event == null) {
+                    event = new QueueProducerBlockedEvent();
+                    event.begin();
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            if (event != null) {
+                event.commit(getClass(), bound, false);
+            }
+            enqueue(e);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes and returns the element at the front of the queue, without
+     * waiting.
+     *
+     * @return the front element, or null if the queue is empty.
+     */
+    @Override
+    public E poll() {
+        lock.lock();
+        try {
+            return numElements == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes and returns the element at the front of the queue, waiting for
+     * one if the queue is empty.
+     *
+     * @return the front element.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @Override
+    public E take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            QueueConsumerWaitEvent event = null;
+            while (numElements == 0) {
+                if (event == null) {
+                    event = new QueueConsumerWaitEvent();
+                    event.begin();
+                }
+                notEmpty.await();
+            }
+            if (event != null) {
+                event.commit(getClass(), false);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes and returns the element at the front of the queue, waiting up to
+     * the given time for one if the queue is empty.
+     *
+     * @param timeout how long to wait, in units of unit
+     * @param unit    the unit of the timeout
+     * @return the front element, or null if the timeout elapsed first.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            QueueConsumerWaitEvent event = null;
+            while (numElements == 0) {
+                if (nanos <= 0) {
+                    if (event != null) {
+                        event.commit(getClass(), true);
+                    }
+                    return null;
+                }
+                if (event == null) {
+                    event = new QueueConsumerWaitEvent();
+                    event.begin();
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            if (event != null) {
+                event.commit(getClass(), false);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the element at the front of the queue without removing it.
+     *
+     * @return the front element, or null if the queue is empty.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        lock.lock();
+        try {
+            // The slot at front is null when the queue is empty.
+            return (E) queue[front];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of elements in the queue.
+     *
+     * @return the number of elements.
+     */
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return numElements;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns how many more elements can be added before producers block, or
+     * Integer.MAX_VALUE for an unbounded queue.
+     *
+     * @return the remaining capacity.
+     */
+    @Override
+    public int remainingCapacity() {
+        if (bound == Integer.MAX_VALUE) {
+            return Integer.MAX_VALUE;
+        }
+        lock.lock();
+        try {
+            return bound - numElements;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all elements and adds them to the given collection.
+     *
+     * @param c the collection to add the elements to
+     * @return the number of elements transferred.
+     */
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Removes up to maxElements elements, in FIFO order, and adds them to the
+     * given collection. The whole batch is taken under one lock acquisition,
+     * walking the live range as at most two contiguous runs. If adding to the
+     * collection throws, the elements already added are removed from this
+     * queue and the rest stay queued.
+     *
+     * @param c           the collection to add the elements to
+     * @param maxElements the maximum number of elements to transfer
+     * @return the number of elements transferred.
+     * @throws NullPointerException     if the collection is null.
+     * @throws IllegalArgumentException if the collection is this queue.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        Objects.requireNonNull(c);
+        if (c == this) {
+            throw new IllegalArgumentException("Cannot drain a queue to itself");
+        }
+        lock.lock();
+        try {
+            int n = Math.min(maxElements, numElements);
+            if (n <= 0) {
+                return 0;
+            }
+            QueueDrainEvent event = new QueueDrainEvent();
+            event.begin();
+            int transferred = 0;
+            try {
+                int firstRun = Math.min(n, queue.length - front);
+                for (int i = front, end = front + firstRun; i < end; i++) {
+                    c.add((E) queue[i]);
+                    queue[i] = null;
+                    transferred++;
+                }
+                for (int i = 0, end = n - firstRun; i < end; i++) {
+                    c.add((E) queue[i]);
+                    queue[i] = null;
+                    transferred++;
+                }
+            } finally {
+                // Account for what was transferred even if c.add threw, so
+                // the queue never holds cleared slots.
+                if (transferred > 0) {
+                    front = (front + transferred) & mask;
+                    numElements -= transferred;
+                    // Wake at most one waiting producer per freed slot.
+                    for (int i = transferred; i > 0 && lock.hasWaiters(notFull); i--) {
+                        notFull.signal();
+                    }
+                }
+                event.commit(getClass(), transferred, maxElements, numElements);
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all elements from the queue.
+     */
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            int firstRun = Math.min(numElements, queue.length - front);
+            Arrays.fill(queue, front, front + firstRun, null);
+            Arrays.fill(queue, 0, numElements - firstRun, null);
+            front = 0;
+            numElements = 0;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns an array containing the elements of the queue in FIFO order.
+     *
+     * @return a new array of the queued elements.
+     */
+    @Override
+    public Object[] toArray() {
+        lock.lock();
+        try {
+            Object[] result = new Object[numElements];
+            int firstRun = Math.min(numElements, queue.length - front);
+            System.arraycopy(queue, front, result, 0, firstRun);
+            System.arraycopy(queue, 0, result, firstRun, numElements - firstRun);
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the first element, in FIFO order, that equals the given object.
+     * The elements behind it, or in front of it if there are fewer of those,
+     * move up one slot to close the gap.
+     *
+     * @param o the element to remove
+     * @return true if an element was removed.
+     */
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        lock.lock();
+        try {
+            for (int i = 0; i < numElements; i++) {
+                if (o.equals(queue[(front + i) & mask])) {
+                    removeAt(i);
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the elements, in FIFO order. The
+     * iterator does not reflect later changes, and never throws
+     * ConcurrentModificationException. Its remove() removes the element last
+     * returned, if that same element is still queued; this is what the
+     * inherited removeIf, removeAll and retainAll use.
+     *
+     * @return an iterator over the queued elements.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new SnapshotIterator(toArray());
+    }
+
+    /**
+     * Iterates over an array copied out of the queue, removing from the
+     * queue itself.
+     */
+    private final class SnapshotIterator implements Iterator<E> {
+
+        /** The elements when the iterator was created. */
+        private final Object[] elements;
+
+        /** Index of the next element to return. */
+        private int next;
+
+        /** Index of the element last returned, or -1 if there is none to remove. */
+        private int last = -1;
+
+        SnapshotIterator(Object[] elements) {
+            this.elements = elements;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < elements.length;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public E next() {
+            if (next >= elements.length) {
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            return (E) elements[last];
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            removeIdentical(elements[last]);
+            last = -1;
+        }
+    }
+
+    /**
+     * Removes the given element itself, not merely an equal one, if it is
+     * still in the queue.
+     *
+     * @param e the element to remove
+     */
+    private void removeIdentical(Object e) {
+        lock.lock();
+        try {
+            for (int i = 0; i < numElements; i++) {
+                if (queue[(front + i) & mask] == e) {
+                    removeAt(i);
+                    return;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the element at the given position, counted from the front, by
+     * shifting the shorter side of the ring over it, and wakes a producer.
+     * The caller holds the lock.
+     *
+     * @param position the position of the element, from 0 to numElements - 1
+     */
+    private void removeAt(int position) {
+        if (position < numElements / 2) {
+            // Shift the elements in front of it back by one, towards the rear.
+            for (int i = position; i > 0; i--) {
+                queue[(front + i) & mask] = queue[(front + i - 1) & mask];
+            }
+            queue[front] = null;
+            front = (front + 1) & mask;
+        } else {
+            // Shift the elements behind it forward by one, towards the front.
+            for (int i = position; i < numElements - 1; i++) {
+                queue[(front + i) & mask] = queue[(front + i + 1) & mask];
+            }
+            queue[(front + numElements - 1) & mask] = null;
+        }
+        numElements--;
+        if (bound != Integer.MAX_VALUE) {
+            notFull.signal();
+        }
+    }
+
+    /**
+     * Adds an element at the tail, doubling the backing array if it is full.
+     * The caller holds the lock and has checked the bound.
+     *
+     * @param e the element to add
+     * @throws IllegalStateException if an unbounded queue already holds 2^30
+     *                               elements.
+     */
+    private void enqueue(E e) {
+        if (numElements == queue.length) {
+            if (queue.length == MyArrayQueue.MAX_POWER_OF_TWO_CAPACITY) {
+                throw new IllegalStateException("Queue is full");
+            }
+            resize(queue.length * 2);
+        }
+        queue[(front + numElements) & mask] = e;
+        numElements++;
+        notEmpty.signal();
+    }
+
+    /**
+     * Removes the element at the front of a non-empty queue. The caller holds
+     * the lock.
+     *
+     * @return the removed element.
+     */
+    private E dequeue() {
+        @SuppressWarnings("unchecked")
+        E removedElement = (E) queue[front];
+        queue[front] = null;
+        front = (front + 1) & mask;
+        numElements--;
+        if (bound != Integer.MAX_VALUE) {
+            notFull.signal();
+        }
+        return removedElement;
+    }
+
+    /**
+     * Replaces the backing array with a new power-of-two array of the given
+     * length, moving the front element to index 0 with at most two array
+     * copies. The caller holds the lock.
+     *
+     * @param newLength the new length, a power of two of at least numElements
+     */
+    private void resize(int newLength) {
+        QueueResizeEvent event = new QueueResizeEvent();
+        event.begin();
+        int oldLength = queue.length;
+        Object[] newQueue = new Object[newLength];
+        int firstRun = Math.min(numElements, queue.length - front);
+        System.arraycopy(queue, front, newQueue, 0, firstRun);
+        System.arraycopy(queue, 0, newQueue, firstRun, numElements - firstRun);
+        queue = newQueue;
+        mask = newLength - 1;
+        front = 0;
+        event.commit(getClass(), oldLength, newLength, numElements);
+    }
+
+    /**
+     * Rejects null elements.
+     *
+     * @param e the element to check
+     * @throws NullPointerException if the element is null.
+     */
+    private static void checkNotNull(Object e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+    }
+}
@@ -0,0 +1,356 @@
+import java.util.AbstractQueue;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A type-safe, generic version of {@link MyArrayQueue} that implements
+ * {@link java.util.Queue}. It uses the same circular array, always in
+ * power-of-two mode, so every index is wrapped with a bit mask.
+ *
+ * The {@link #offer}, {@link #poll} and {@link #peek} fast paths work on the
+ * backing array directly. Bulk {@link #addAll} and {@link #toArray} copy the
+ * live range of the ring with at most two array copies instead of going
+ * through the iterator like the {@link java.util.AbstractCollection} defaults.
+ * Like the other JDK queues, null elements are not permitted, since null is
+ * the "empty" result of {@link #poll} and {@link #peek}.
+ *
+ * The iterator is fail-fast: once the queue has been changed other than
+ * through the iterator's own remove(), its next call throws a
+ * {@link ConcurrentModificationException}.
+ *
+ * @param <E> the type of elements held in the queue
+ */
+public class MyGenericArrayQueue<E> extends AbstractQueue<E> {
+
+    /** An array to hold the items in the queue; its length is a power of two. */
+    protected Object[] queue;
+
+    /** Index of the item at the front of the queue. */
+    protected int front;
+
+    /** Number of elements currently in the queue. */
+    protected int numElements;
+
+    /** Bit mask used to wrap indices, always queue.length - 1. */
+    protected int mask;
+
+    /** Number of times elements have been added or removed, checked by iterators. */
+    protected int modCount;
+
+    /**
+     * Constructor: Sets up an empty queue of the specified initial capacity,
+     * rounded up to the next power of two.
+     *
+     * @param capacity the initial capacity of the queue
+     */
+    public MyGenericArrayQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be >= 1");
+        }
+        int length = MyArrayQueue.roundUpToPowerOfTwo(capacity);
+        queue = new Object[length];
+        mask = length - 1;
+        front = 0;
+        numElements = 0;
+    }
+
+    /**
+     * Default constructor, creates a queue with the default capacity.
+     */
+    public MyGenericArrayQueue() {
+        this(MyArrayQueue.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Returns the number of elements in the queue.
+     *
+     * @return the number of elements.
+     */
+    @Override
+    public int size() {
+        return numElements;
+    }
+
+    /**
+     * Check if the queue is empty.
+     *
+     * @return true if the number of elements is zero, false otherwise.
+     */
+    @Override
+    public boolean isEmpty() {
+        return numElements == 0;
+    }
+
+    /**
+     * Adds an element to the tail of the queue, doubling the backing array if
+     * it is full. This queue is unbounded, so it always accepts the element.
+     *
+     * @param e the element to add
+     * @return true
+     * @throws NullPointerException  if the element is null.
+     * @throws IllegalStateException if the queue already holds 2^30 elements.
+     */
+    @Override
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        if (numElements == queue.length) {
+            if (queue.length == MyArrayQueue.MAX_POWER_OF_TWO_CAPACITY) {
+                throw new IllegalStateException("Queue is full");
+            }
+            resize(queue.length * 2);
+        }
+        queue[(front + numElements) & mask] = e;
+        numElements++;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Removes and returns the element at the front of the queue.
+     *
+     * @return the front element, or null if the queue is empty.
+     */
+    @Override
+    public E poll() {
+        if (numElements == 0) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        E removedElement = (E) queue[front];
+        queue[front] = null;
+        front = (front + 1) & mask;
+        numElements--;
+        modCount++;
+        return removedElement;
+    }
+
+    /**
+     * Returns the element at the front of the queue without removing it.
+     *
+     * @return the front element, or null if the queue is empty.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        // The slot at front is null when the queue is empty.
+        return (E) queue[front];
+    }
+
+    /**
+     * Adds all elements of the given collection to the tail of the queue. The
+     * backing array grows at most once, and the elements are copied into the
+     * ring with at most two array copies.
+     *
+     * @param c the elements to add
+     * @return true if the queue changed.
+     * @throws NullPointerException     if the collection contains a null element.
+     * @throws IllegalArgumentException if the collection is this queue.
+     * @throws IllegalStateException    if the elements would take the queue
+     *                                  past 2^30 elements.
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> c) {
+        if (c == this) {
+            throw new IllegalArgumentException("Cannot add a queue to itself");
+        }
+        Object[] src = c.toArray();
+        int n = src.length;
+        if (n == 0) {
+            return false;
+        }
+        for (Object o : src) {
+            if (o == null) {
+                throw new NullPointerException();
+            }
+        }
+        if (n > MyArrayQueue.MAX_POWER_OF_TWO_CAPACITY - numElements) {
+            throw new IllegalStateException("Queue is full");
+        }
+        ensureCapacity(numElements + n);
+
+        // Copy up to the end of the array, then wrap around to index 0.
+        int rear = (front + numElements) & mask;
+        int firstRun = Math.min(n, queue.length - rear);
+        System.arraycopy(src, 0, queue, rear, firstRun);
+        System.arraycopy(src, firstRun, queue, 0, n - firstRun);
+        numElements += n;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Returns an array containing the elements of the queue in FIFO order.
+     *
+     * @return a new array of the queued elements.
+     */
+    @Override
+    public Object[] toArray() {
+        Object[] result = new Object[numElements];
+        copyTo(result);
+        return result;
+    }
+
+    /**
+     * Returns an array containing the elements of the queue in FIFO order,
+     * using the given array if it is large enough.
+     *
+     * @param a   the array to fill, if it is big enough
+     * @param <T> the component type of the array
+     * @return an array of the queued elements.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(T[] a) {
+        if (a.length < numElements) {
+            a = (T[]) java.lang.reflect.Array.newInstance(a.getClass().getComponentType(), numElements);
+        }
+        copyTo(a);
+        if (a.length > numElements) {
+            a[numElements] = null;
+        }
+        return a;
+    }
+
+    /**
+     * Removes all elements, clearing only the live range of the ring.
+     */
+    @Override
+    public void clear() {
+        int firstRun = Math.min(numElements, queue.length - front);
+        Arrays.fill(queue, front, front + firstRun, null);
+        Arrays.fill(queue, 0, numElements - firstRun, null);
+        front = 0;
+        numElements = 0;
+        modCount++;
+    }
+
+    /**
+     * Returns an iterator over the elements in FIFO order. Its remove() closes
+     * the gap by shifting the shorter side of the ring, as
+     * {@link java.util.ArrayDeque} does, which also makes the inherited
+     * remove(Object), removeAll, retainAll and removeIf work.
+     *
+     * @return an iterator over the queued elements.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            /** Position, counted from the front, of the next element to return. */
+            private int cursor = 0;
+
+            /** Position of the element last returned, or -1 if it was removed. */
+            private int lastReturned = -1;
+
+            /** The modCount this iterator expects the queue to have. */
+            private int expectedModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+                return cursor < numElements;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public E next() {
+                checkForComodification();
+                if (cursor >= numElements) {
+                    throw new NoSuchElementException();
+                }
+                lastReturned = cursor;
+                return (E) queue[(front + cursor++) & mask];
+            }
+
+            @Override
+            public void remove() {
+                if (lastReturned < 0) {
+                    throw new IllegalStateException();
+                }
+                checkForComodification();
+                removeAt(lastReturned);
+                // Whichever side was shifted, the next element now sits at
+                // the position of the removed one.
+                cursor = lastReturned;
+                lastReturned = -1;
+                expectedModCount = modCount;
+            }
+
+            private void checkForComodification() {
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+            }
+        };
+    }
+
+    /**
+     * Removes the element at the given position, counted from the front, by
+     * shifting the shorter side of the ring over it.
+     *
+     * @param position the position of the element, from 0 to numElements - 1
+     */
+    private void removeAt(int position) {
+        if (position < numElements / 2) {
+            // Shift the elements in front of it back by one, towards the rear.
+            for (int i = position; i > 0; i--) {
+                queue[(front + i) & mask] = queue[(front + i - 1) & mask];
+            }
+            queue[front] = null;
+            front = (front + 1) & mask;
+        } else {
+            // Shift the elements behind it forward by one, towards the front.
+            for (int i = position; i < numElements - 1; i++) {
+                queue[(front + i) & mask] = queue[(front + i + 1) & mask];
+            }
+            queue[(front + numElements - 1) & mask] = null;
+        }
+        numElements--;
+        modCount++;
+    }
+
+    /**
+     * Grows the backing array, if necessary, so that it can hold at least the
+     * given number of elements without resizing.
+     *
+     * @param minCapacity the desired minimum capacity
+     */
+    public void ensureCapacity(int minCapacity) {
+        if (minCapacity > queue.length) {
+            resize(MyArrayQueue.roundUpToPowerOfTwo(minCapacity));
+        }
+    }
+
+    /**
+     * Copies the elements, in FIFO order, to the start of the given array using
+     * at most two array copies.
+     *
+     * @param dest an array with room for at least numElements elements
+     */
+    private void copyTo(Object[] dest) {
+        int firstRun = Math.min(numElements, queue.length - front);
+        System.arraycopy(queue, front, dest, 0, firstRun);
+        System.arraycopy(queue, 0, dest, firstRun, numElements - firstRun);
+    }
+
+    /**
+     * Replaces the backing array with a new power-of-two array of the given
+     * length, moving the front element to index 0.
+     *
+     * @param newLength the new length, a power of two of at least numElements
+     */
+    protected void resize(int newLength) {
+        QueueResizeEvent event = new QueueResizeEvent();
+        event.begin();
+        int oldLength = queue.length;
+        Object[] newQueue = new Object[newLength];
+        copyTo(newQueue);
+        queue = newQueue;
+        mask = newLength - 1;
+        front = 0;
+        event.commit(getClass(), oldLength, newLength, numElements);
+    }
+}
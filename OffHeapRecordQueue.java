@@ -0,0 +1,297 @@
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * A circular queue of fixed-layout trade records (timestamp, id, price,
+ * quantity) stored off the Java heap in a {@link MemorySegment}, so queued
+ * records are invisible to the garbage collector.
+ *
+ * The ring logic is the same as {@link MyArrayQueue}: a front index and an
+ * element count over a power-of-two number of record slots, doubling when
+ * full. Records are never materialized as objects. {@link #enqueue()} and
+ * {@link #peek()} return a flyweight {@link Record} positioned on a slot, and
+ * the caller reads or writes the fields in place. The queue owns exactly one
+ * writing and one reading flyweight, so nothing is allocated per record. A
+ * flyweight is only valid until the next call on the queue.
+ *
+ * The memory is allocated from an {@link Arena} and released deterministically
+ * by {@link #close()}. Growing allocates a new segment from a new arena and
+ * closes the old one straight away. The queue is not thread-safe, like
+ * {@link MyArrayQueue}, but it may be handed from one thread to another.
+ */
+public class OffHeapRecordQueue implements AutoCloseable {
+
+    /** Offset of the timestamp field within a record. */
+    private static final long TIMESTAMP_OFFSET = 0;
+
+    /** Offset of the id field within a record. */
+    private static final long ID_OFFSET = 8;
+
+    /** Offset of the price field within a record. */
+    private static final long PRICE_OFFSET = 16;
+
+    /** Offset of the quantity field within a record. */
+    private static final long QUANTITY_OFFSET = 24;
+
+    /** Size of one record in bytes. */
+    public static final long RECORD_BYTES = 32;
+
+    /** The arena that owns the current segment. */
+    private Arena arena;
+
+    /** The off-heap memory holding the record slots. */
+    private MemorySegment segment;
+
+    /** Number of record slots; always a power of two. */
+    private int capacity;
+
+    /** Bit mask used to wrap slot indices, always capacity - 1. */
+    private int mask;
+
+    /** Index of the record at the front of the queue. */
+    private int front;
+
+    /** Number of records currently in the queue. */
+    private int numElements;
+
+    /** The flyweight returned by enqueue(). */
+    private final Record writer = new Record();
+
+    /** The flyweight returned by peek(). */
+    private final Record reader = new Record();
+
+    /**
+     * Constructor: Sets up an empty queue with room for at least the given
+     * number of records.
+     *
+     * @param capacity the initial capacity, rounded up to the next power of two
+     */
+    public OffHeapRecordQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be >= 1");
+        }
+        this.capacity = MyArrayQueue.roundUpToPowerOfTwo(capacity);
+        mask = this.capacity - 1;
+        arena = Arena.ofShared();
+        segment = arena.allocate(this.capacity * RECORD_BYTES, Long.BYTES);
+    }
+
+    /**
+     * Check if the queue is empty.
+     *
+     * @return true if the number of records is zero, false otherwise.
+     */
+    public boolean isEmpty() {
+        return numElements == 0;
+    }
+
+    /**
+     * Check if the queue is full.
+     *
+     * @return true if every slot holds a record.
+     */
+    public boolean isFull() {
+        return numElements == capacity;
+    }
+
+    /**
+     * Returns the number of records in the queue.
+     *
+     * @return the number of records.
+     */
+    public int size() {
+        return numElements;
+    }
+
+    /**
+     * Returns the number of record slots.
+     *
+     * @return the current capacity of the queue.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Adds a record to the tail of the queue and returns a flyweight positioned
+     * on it, so the caller can write its fields in place. The slot may hold
+     * stale data from an earlier record until every field is set. Doubles the
+     * backing memory if the queue is full.
+     *
+     * @return the flyweight for the new record, valid until the next call on
+     *         this queue.
+     * @throws IllegalStateException if the queue already holds 2^30 records.
+     */
+    public Record enqueue() {
+        if (isFull()) {
+            if (capacity == MyArrayQueue.MAX_POWER_OF_TWO_CAPACITY) {
+                throw new IllegalStateException("Queue is full");
+            }
+            resize(capacity * 2);
+        }
+        int rear = (front + numElements) & mask;
+        numElements++;
+        return writer.moveTo(segment, rear * RECORD_BYTES);
+    }
+
+    /**
+     * Adds a record with the given fields to the tail of the queue.
+     *
+     * @param timestamp the record timestamp
+     * @param id        the record id
+     * @param price     the record price
+     * @param quantity  the record quantity
+     */
+    public void enqueue(long timestamp, long id, double price, long quantity) {
+        enqueue().setTimestamp(timestamp).setId(id).setPrice(price).setQuantity(quantity);
+    }
+
+    /**
+     * Returns a flyweight positioned on the record at the front of the queue,
+     * without removing it.
+     *
+     * @return the flyweight for the front record, valid until the next call on
+     *         this queue, or null if the queue is empty.
+     */
+    public Record peek() {
+        if (isEmpty()) {
+            return null;
+        }
+        return reader.moveTo(segment, front * RECORD_BYTES);
+    }
+
+    /**
+     * Removes the record at the front of the queue. Read it first with
+     * {@link #peek()}.
+     *
+     * @throws IllegalStateException if the queue is empty.
+     */
+    public void dequeue() throws IllegalStateException {
+        if (isEmpty()) {
+            throw new IllegalStateException("Queue is empty");
+        }
+        front = (front + 1) & mask;
+        numElements--;
+    }
+
+    /**
+     * Releases the off-heap memory. The queue and any flyweights obtained from
+     * it must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    /**
+     * Moves the records into a new segment with the given number of slots, so
+     * the front record is at slot 0. The live records are copied with at most
+     * two bulk copies, and the old segment is freed immediately.
+     *
+     * @param newCapacity the new number of slots, a power of two of at least numElements
+     */
+    private void resize(int newCapacity) {
+        QueueResizeEvent event = new QueueResizeEvent();
+        event.begin();
+        int oldCapacity = capacity;
+        Arena newArena = Arena.ofShared();
+        MemorySegment newSegment = newArena.allocate(newCapacity * RECORD_BYTES, Long.BYTES);
+        int firstRun = Math.min(numElements, capacity - front);
+        MemorySegment.copy(segment, front * RECORD_BYTES, newSegment, 0, firstRun * RECORD_BYTES);
+        MemorySegment.copy(segment, 0, newSegment, firstRun * RECORD_BYTES, (numElements - firstRun) * RECORD_BYTES);
+        arena.close();
+        arena = newArena;
+        segment = newSegment;
+        capacity = newCapacity;
+        mask = newCapacity - 1;
+        front = 0;
+        event.commit(getClass(), oldCapacity, newCapacity, numElements);
+    }
+
+    /**
+     * A flyweight view of one record slot. It holds no data itself; every
+     * getter and setter reads or writes the off-heap slot directly.
+     */
+    public static final class Record {
+
+        /** The segment holding the slot. */
+        private MemorySegment segment;
+
+        /** Byte offset of the slot within the segment. */
+        private long offset;
+
+        /** Only the queue creates flyweights. */
+        private Record() {
+        }
+
+        /**
+         * Positions the flyweight on a slot.
+         *
+         * @param segment the segment holding the slot
+         * @param offset  byte offset of the slot within the segment
+         * @return this flyweight.
+         */
+        private Record moveTo(MemorySegment segment, long offset) {
+            this.segment = segment;
+            this.offset = offset;
+            return this;
+        }
+
+        /** @return the record timestamp. */
+        public long timestamp() {
+            return segment.get(ValueLayout.JAVA_LONG, offset + TIMESTAMP_OFFSET);
+        }
+
+        /** @return the record id. */
+        public long id() {
+            return segment.get(ValueLayout.JAVA_LONG, offset + ID_OFFSET);
+        }
+
+        /** @return the record price. */
+        public double price() {
+            return segment.get(ValueLayout.JAVA_DOUBLE, offset + PRICE_OFFSET);
+        }
+
+        /** @return the record quantity. */
+        public long quantity() {
+            return segment.get(ValueLayout.JAVA_LONG, offset + QUANTITY_OFFSET);
+        }
+
+        /**
+         * @param timestamp the record timestamp
+         * @return this flyweight, for chaining.
+         */
+        public Record setTimestamp(long timestamp) {
+            segment.set(ValueLayout.JAVA_LONG, offset + TIMESTAMP_OFFSET, timestamp);
+            return this;
+        }
+
+        /**
+         * @param id the record id
+         * @return this flyweight, for chaining.
+         */
+        public Record setId(long id) {
+            segment.set(ValueLayout.JAVA_LONG, offset + ID_OFFSET, id);
+            return this;
+        }
+
+        /**
+         * @param price the record price
+         * @return this flyweight, for chaining.
+         */
+        public Record setPrice(double price) {
+            segment.set(ValueLayout.JAVA_DOUBLE, offset + PRICE_OFFSET, price);
+            return this;
+        }
+
+        /**
+         * @param quantity the record quantity
+         * @return this flyweight, for chaining.
+         */
+        public Record setQuantity(long quantity) {
+            segment.set(ValueLayout.JAVA_LONG, offset + QUANTITY_OFFSET, quantity);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,680 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Self-timed micro benchmarks for the queue implementations. Each benchmark is
+ * selected by name on the command line, for example
+ * {@code java QueueBenchmark mask}. With no arguments every benchmark is run.
+ *
+ * Every benchmark runs a number of warm-up rounds so the JIT has compiled the
+ * hot paths, then reports the average time per operation over the measured
+ * rounds. The numbers are only meant for comparing variants against each
+ * other on the same machine.
+ */
+public class QueueBenchmark {
+
+    /** Number of rounds run before measuring, to let the JIT warm up. */
+    private static final int WARMUP_ROUNDS = 5;
+
+    /** Number of rounds that are measured and averaged. */
+    private static final int MEASURED_ROUNDS = 5;
+
+    /** Results are written here so the JIT cannot eliminate the work. */
+    static volatile Object sink;
+
+    /** The names of all benchmarks, in the order they run by default. */
+    private static final String[] ALL = { "mask", "batch", "empty", "spsc", "mpsc", "mpmc", "blocking", "wait", "journal", "steal" };
+
+    /**
+     * Runs the benchmarks named in args, or all of them if none are given.
+     *
+     * @param args names of the benchmarks to run.
+     */
+    public static void main(String[] args) {
+        String[] names = args.length == 0 ? ALL : args;
+        for (String name : names) {
+            System.out.println("== " + name);
+            switch (name) {
+                case "mask":
+                    benchmarkMask();
+                    break;
+                case "batch":
+                    benchmarkBatch();
+                    break;
+                case "empty":
+                    benchmarkEmpty();
+                    break;
+                case "spsc":
+                    benchmarkSpsc();
+                    break;
+                case "mpsc":
+                    benchmarkMpsc();
+                    break;
+                case "mpmc":
+                    benchmarkMpmc();
+                    break;
+                case "blocking":
+                    benchmarkBlocking();
+                    break;
+                case "wait":
+                    benchmarkWait();
+                    break;
+                case "journal":
+                    benchmarkJournal();
+                    break;
+                case "steal":
+                    benchmarkSteal();
+                    break;
+                default:
+                    System.out.println("Unknown benchmark: " + name);
+            }
+        }
+    }
+
+    /**
+     * Compares modulo indexing against power-of-two mask indexing on a queue
+     * that stays half full, so every operation wraps around the array.
+     */
+    private static void benchmarkMask() {
+        final int ops = 20_000_000;
+        // 1024 is already a power of two, so both queues have the same length.
+        time("modulo enqueue+dequeue", ops, () -> steadyState(new MyArrayQueue(1024), ops));
+        time("mask   enqueue+dequeue", ops, () -> steadyState(new MyArrayQueue(1024, true), ops));
+    }
+
+    /**
+     * Keeps the queue half full and performs one enqueue and one dequeue per
+     * operation.
+     *
+     * @param q   the queue to exercise
+     * @param ops the number of enqueue/dequeue pairs
+     */
+    private static void steadyState(MyArrayQueue q, int ops) {
+        Integer element = 42;
+        for (int i = 0; i < 512; i++) {
+            q.enqueue(element);
+        }
+        Object last = null;
+        for (int i = 0; i < ops; i++) {
+            q.enqueue(element);
+            last = q.dequeue();
+        }
+        sink = last;
+    }
+
+    /**
+     * Compares moving elements one at a time with enqueue/dequeue against the
+     * bulk enqueueAll/drainTo calls, for a range of batch sizes.
+     */
+    private static void benchmarkBatch() {
+        final int elements = 16_000_000;
+        for (int batch : new int[] { 64, 256, 1024, 4096 }) {
+            Object[] src = new Object[batch];
+            Arrays.fill(src, 42);
+            Object[] dst = new Object[batch];
+            time("single  batch=" + batch, elements, () -> {
+                MyArrayQueue q = new MyArrayQueue();
+                Object last = null;
+                for (int done = 0; done < elements; done += batch) {
+                    for (int i = 0; i < batch; i++) {
+                        q.enqueue(src[i]);
+                    }
+                    for (int i = 0; i < batch; i++) {
+                        last = q.dequeue();
+                    }
+                }
+                sink = last;
+            });
+            time("bulk    batch=" + batch, elements, () -> {
+                MyArrayQueue q = new MyArrayQueue();
+                for (int done = 0; done < elements; done += batch) {
+                    q.enqueueAll(src, 0, batch);
+                    q.drainTo(dst, batch);
+                }
+                sink = dst[batch - 1];
+            });
+        }
+    }
+
+    /**
+     * Compares the two ways of handling an empty queue, catching the
+     * IllegalStateException from dequeue() against checking for null from
+     * poll(), on a mostly-empty queue where only one poll in 100 finds an
+     * element.
+     */
+    private static void benchmarkEmpty() {
+        final int ops = 2_000_000;
+        final Integer element = 42;
+        time("dequeue + catch (1% hits)", ops, () -> {
+            MyArrayQueue q = new MyArrayQueue();
+            Object last = null;
+            for (int i = 0; i < ops; i++) {
+                if (i % 100 == 0) {
+                    q.enqueue(element);
+                }
+                try {
+                    last = q.dequeue();
+                } catch (IllegalStateException e) {
+                    last = e;
+                }
+            }
+            sink = last;
+        });
+        time("poll            (1% hits)", ops, () -> {
+            MyArrayQueue q = new MyArrayQueue();
+            Object last = null;
+            for (int i = 0; i < ops; i++) {
+                if (i % 100 == 0) {
+                    q.enqueue(element);
+                }
+                Object polled = q.poll();
+                if (polled != null) {
+                    last = polled;
+                }
+            }
+            sink = last;
+        });
+    }
+
+    /**
+     * Measures handing elements from one producer thread to one consumer
+     * thread, through a MyArrayQueue guarded by synchronized and through the
+     * lock-free SpscArrayQueue.
+     */
+    private static void benchmarkSpsc() {
+        final int ops = 50_000_000;
+        final Integer element = 42;
+        time("synchronized MyArrayQueue", ops / 10, () -> {
+            MyArrayQueue q = new MyArrayQueue(1024);
+            runPair(() -> {
+                for (int i = 0; i < ops / 10; i++) {
+                    synchronized (q) {
+                        q.enqueue(element);
+                    }
+                }
+            }, () -> {
+                int received = 0;
+                Object last = null;
+                while (received < ops / 10) {
+                    synchronized (q) {
+                        last = q.poll();
+                    }
+                    if (last != null) {
+                        received++;
+                    }
+                }
+                sink = last;
+            });
+        });
+        time("SpscArrayQueue", ops, () -> {
+            SpscArrayQueue<Integer> q = new SpscArrayQueue<>(1024);
+            runPair(() -> {
+                for (int i = 0; i < ops; i++) {
+                    while (!q.offer(element)) {
+                        Thread.onSpinWait();
+                    }
+                }
+            }, () -> {
+                int received = 0;
+                Integer last = null;
+                while (received < ops) {
+                    Integer polled = q.poll();
+                    if (polled != null) {
+                        last = polled;
+                        received++;
+                    } else {
+                        Thread.onSpinWait();
+                    }
+                }
+                sink = last;
+            });
+        });
+    }
+
+    /**
+     * Measures MpscArrayQueue throughput with 1 to 64 producer threads feeding
+     * one draining consumer, and reports the producer CAS retries per offer as
+     * a measure of contention.
+     */
+    private static void benchmarkMpsc() {
+        final int ops = 8_000_000;
+        final Integer element = 42;
+        for (int count = 1; count <= 64; count *= 2) {
+            final int producers = count;
+            final int perProducer = ops / producers;
+            final int total = perProducer * producers;
+            MpscArrayQueue<?>[] last = new MpscArrayQueue<?>[1];
+            time("MpscArrayQueue producers=" + producers, total, () -> {
+                MpscArrayQueue<Integer> q = new MpscArrayQueue<>(4096);
+                last[0] = q;
+                Runnable[] tasks = new Runnable[producers + 1];
+                for (int i = 0; i < producers; i++) {
+                    tasks[i] = () -> {
+                        for (int j = 0; j < perProducer; j++) {
+                            while (!q.offer(element)) {
+                                Thread.yield();
+                            }
+                        }
+                    };
+                }
+                tasks[producers] = () -> {
+                    int received = 0;
+                    while (received < total) {
+                        int n = q.drain(e -> sink = e, 256);
+                        if (n == 0) {
+                            Thread.yield();
+                        }
+                        received += n;
+                    }
+                };
+                runThreads(tasks);
+            });
+            System.out.printf("    CAS retries per offer (last round): %.4f%n",
+                    (double) last[0].casRetries() / total);
+        }
+    }
+
+    /**
+     * Measures how MpmcArrayQueue scales with the number of threads, using
+     * equal numbers of producers and consumers, from one pair up to one thread
+     * per available core. ArrayBlockingQueue, which uses a single lock, is run
+     * the same way for reference.
+     */
+    private static void benchmarkMpmc() {
+        final int ops = 8_000_000;
+        final Integer element = 42;
+        int maxPairs = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        for (int count = 1; count <= maxPairs; count *= 2) {
+            final int pairs = count;
+            final int perThread = ops / pairs;
+            time("MpmcArrayQueue     pairs=" + pairs, (long) perThread * pairs, () -> {
+                MpmcArrayQueue<Integer> q = new MpmcArrayQueue<>(4096);
+                runPairs(pairs, () -> {
+                    for (int i = 0; i < perThread; i++) {
+                        while (!q.offer(element)) {
+                            Thread.yield();
+                        }
+                    }
+                }, () -> {
+                    Integer last = null;
+                    for (int i = 0; i < perThread; i++) {
+                        while ((last = q.poll()) == null) {
+                            Thread.yield();
+                        }
+                    }
+                    sink = last;
+                });
+            });
+            time("ArrayBlockingQueue pairs=" + pairs, (long) perThread * pairs, () -> {
+                ArrayBlockingQueue<Integer> q = new ArrayBlockingQueue<>(4096);
+                runPairs(pairs, () -> {
+                    for (int i = 0; i < perThread; i++) {
+                        while (!q.offer(element)) {
+                            Thread.yield();
+                        }
+                    }
+                }, () -> {
+                    Integer last = null;
+                    for (int i = 0; i < perThread; i++) {
+                        while ((last = q.poll()) == null) {
+                            Thread.yield();
+                        }
+                    }
+                    sink = last;
+                });
+            });
+        }
+    }
+
+    /**
+     * Compares MyBlockingArrayQueue with ArrayBlockingQueue when 10,000
+     * virtual-thread consumers block in take() while four platform threads
+     * put elements into a queue bounded at 1024.
+     */
+    private static void benchmarkBlocking() {
+        final int consumers = 10_000;
+        final int producers = 4;
+        final int perConsumer = 200;
+        final int total = consumers * perConsumer;
+        time("MyBlockingArrayQueue 10k virtual", total,
+                () -> runBlocking(new MyBlockingArrayQueue<>(1024), producers, consumers, perConsumer));
+        time("ArrayBlockingQueue   10k virtual", total,
+                () -> runBlocking(new ArrayBlockingQueue<>(1024), producers, consumers, perConsumer));
+    }
+
+    /**
+     * Compares the wait strategies on an SpscArrayQueue where the producer
+     * sends a timestamp every 50 microseconds, so the consumer spends most of
+     * its time waiting in take(). Reports the average and worst hand-off
+     * latency, and how much CPU the consumer used relative to wall time.
+     */
+    private static void benchmarkWait() {
+        final int messages = 20_000;
+        final long intervalNanos = 50_000;
+        String[] names = { "busy-spin", "yielding", "spin-then-park", "blocking" };
+        WaitStrategy[] strategies = { WaitStrategy.busySpin(), WaitStrategy.yielding(),
+                WaitStrategy.spinThenPark(), WaitStrategy.blocking() };
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        for (int s = 0; s < strategies.length; s++) {
+            SpscArrayQueue<Long> q = new SpscArrayQueue<>(1024, strategies[s]);
+            long[] result = new long[3];
+            long start = System.nanoTime();
+            runPair(() -> {
+                for (int i = 0; i < messages; i++) {
+                    LockSupport.parkNanos(intervalNanos);
+                    while (!q.offer(System.nanoTime())) {
+                        Thread.onSpinWait();
+                    }
+                }
+            }, () -> {
+                long cpuStart = threads.getCurrentThreadCpuTime();
+                try {
+                    for (int i = 0; i < messages; i++) {
+                        long sent = q.take();
+                        long latency = System.nanoTime() - sent;
+                        result[0] += latency;
+                        result[1] = Math.max(result[1], latency);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                result[2] = threads.getCurrentThreadCpuTime() - cpuStart;
+            });
+            long wall = System.nanoTime() - start;
+            System.out.printf("%-16s avg %8.1f us  max %9.1f us  consumer CPU %5.1f%%%n", names[s],
+                    result[0] / 1000.0 / messages, result[1] / 1000.0, 100.0 * result[2] / wall);
+        }
+    }
+
+    /**
+     * Measures durable enqueues per second on a JournaledQueue as the number of
+     * concurrent enqueuers, and with it the group-commit batch size, grows.
+     * Each configuration uses a fresh log in the temporary directory.
+     */
+    private static void benchmarkJournal() {
+        final int operations = 4_000;
+        final byte[] message = new byte[64];
+        for (int count = 1; count <= 64; count *= 4) {
+            final int enqueuers = count;
+            try {
+                Path log = Files.createTempFile("journal", ".log");
+                try (JournaledQueue q = new JournaledQueue(log, 200, TimeUnit.MICROSECONDS, 1 << 20)) {
+                    Runnable[] tasks = new Runnable[enqueuers];
+                    Arrays.fill(tasks, (Runnable) () -> {
+                        try {
+                            for (int i = 0; i < operations / enqueuers; i++) {
+                                q.enqueue(message);
+                            }
+                        } catch (IOException | InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    });
+                    long start = System.nanoTime();
+                    runThreads(tasks);
+                    long elapsed = System.nanoTime() - start;
+                    int done = operations / enqueuers * enqueuers;
+                    System.out.printf("enqueuers=%-3d %10.0f durable ops/s  %6.1f records per force%n",
+                            enqueuers, done * 1e9 / elapsed, (double) done / q.forces());
+                } finally {
+                    Files.delete(log);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Runs platform-thread producers and virtual-thread consumers against a
+     * blocking queue until every element has been taken.
+     *
+     * @param q           the queue under test
+     * @param producers   the number of producer threads
+     * @param consumers   the number of virtual consumer threads
+     * @param perConsumer the number of elements each consumer takes
+     */
+    private static void runBlocking(BlockingQueue<Integer> q, int producers, int consumers, int perConsumer) {
+        final Integer element = 42;
+        final int perProducer = consumers / producers * perConsumer;
+        try (ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < consumers; i++) {
+                virtualThreads.submit(() -> {
+                    Integer last = null;
+                    for (int j = 0; j < perConsumer; j++) {
+                        last = q.take();
+                    }
+                    sink = last;
+                    return null;
+                });
+            }
+            Runnable[] tasks = new Runnable[producers];
+            Arrays.fill(tasks, (Runnable) () -> {
+                try {
+                    for (int j = 0; j < perProducer; j++) {
+                        q.put(element);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            runThreads(tasks);
+        }
+    }
+
+    /**
+     * Compares a fork/join scheduler built on {@link WorkStealingDeque} with
+     * ForkJoinPool on a recursive divide-and-conquer sum: each task covering
+     * more than one number pushes its upper half and keeps splitting its lower
+     * half, so the workload is dominated by pushing, popping and stealing
+     * tiny tasks. At least two workers are used, so stealing happens even on
+     * a single core. The WorkStealingDeque rounds include starting the worker
+     * threads, which ForkJoinPool keeps alive between rounds.
+     */
+    private static void benchmarkSteal() {
+        final int leaves = 1 << 20;
+        final long expected = (long) leaves * (leaves - 1) / 2;
+        int maxWorkers = Math.max(2, Runtime.getRuntime().availableProcessors());
+        for (int count = 1; count <= maxWorkers; count *= 2) {
+            final int workers = count;
+            time("WorkStealingDeque  workers=" + workers, leaves, () -> {
+                long sum = stealingSum(workers, leaves);
+                if (sum != expected) {
+                    throw new IllegalStateException("Wrong sum " + sum);
+                }
+                sink = sum;
+            });
+            ForkJoinPool pool = new ForkJoinPool(workers);
+            time("ForkJoinPool       workers=" + workers, leaves, () -> {
+                long sum = pool.invoke(new RangeSum(0, leaves));
+                if (sum != expected) {
+                    throw new IllegalStateException("Wrong sum " + sum);
+                }
+                sink = sum;
+            });
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Sums the numbers below the given bound by recursive splitting, on worker
+     * threads that each own a {@link WorkStealingDeque} and steal from a
+     * random other worker when their own runs dry.
+     *
+     * @param workers the number of worker threads
+     * @param leaves  the bound, and the number of single-number tasks
+     * @return the sum.
+     */
+    private static long stealingSum(int workers, int leaves) {
+        @SuppressWarnings("unchecked")
+        WorkStealingDeque<int[]>[] deques = (WorkStealingDeque<int[]>[]) new WorkStealingDeque<?>[workers];
+        for (int i = 0; i < workers; i++) {
+            deques[i] = new WorkStealingDeque<>(64);
+        }
+        // Leaves done by each worker, 16 longs apart so the counters do not share a cache line.
+        AtomicLongArray done = new AtomicLongArray(workers * 16);
+        long[] sums = new long[workers];
+        deques[0].push(new int[] { 0, leaves });
+
+        Runnable[] tasks = new Runnable[workers];
+        for (int i = 0; i < workers; i++) {
+            final int w = i;
+            tasks[i] = () -> {
+                WorkStealingDeque<int[]> own = deques[w];
+                int seed = w + 1;
+                long sum = 0;
+                long completed = 0;
+                while (true) {
+                    int[] range = own.pop();
+                    if (range == null && workers > 1) {
+                        // Pick a victim other than ourselves with a xorshift step.
+                        seed ^= seed << 13;
+                        seed ^= seed >>> 17;
+                        seed ^= seed << 5;
+                        int victim = Math.floorMod(seed, workers - 1);
+                        range = deques[victim >= w ? victim + 1 : victim].steal();
+                    }
+                    if (range == null) {
+                        // Counters only grow, so a stale total can only be too low.
+                        long total = 0;
+                        for (int j = 0; j < workers; j++) {
+                            total += done.getOpaque(j * 16);
+                        }
+                        if (total == leaves) {
+                            break;
+                        }
+                        Thread.onSpinWait();
+                        continue;
+                    }
+                    int lo = range[0];
+                    int hi = range[1];
+                    while (hi - lo > 1) {
+                        int mid = (lo + hi) >>> 1;
+                        own.push(new int[] { mid, hi });
+                        hi = mid;
+                    }
+                    sum += lo;
+                    done.setOpaque(w * 16, ++completed);
+                }
+                sums[w] = sum;
+            };
+        }
+        runThreads(tasks);
+        long sum = 0;
+        for (long s : sums) {
+            sum += s;
+        }
+        return sum;
+    }
+
+    /**
+     * The ForkJoinPool version of the recursive sum: forks the upper half,
+     * computes the lower half itself, then joins.
+     */
+    @SuppressWarnings("serial")
+    private static final class RangeSum extends RecursiveTask<Long> {
+
+        private final int lo;
+        private final int hi;
+
+        RangeSum(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected Long compute() {
+            if (hi - lo == 1) {
+                return (long) lo;
+            }
+            int mid = (lo + hi) >>> 1;
+            RangeSum upper = new RangeSum(mid, hi);
+            upper.fork();
+            long lower = new RangeSum(lo, mid).compute();
+            return lower + upper.join();
+        }
+    }
+
+    /**
+     * Runs the given number of producer threads and the same number of
+     * consumer threads, and waits for all of them.
+     *
+     * @param pairs    the number of producers, and of consumers
+     * @param producer the work for each producer
+     * @param consumer the work for each consumer
+     */
+    static void runPairs(int pairs, Runnable producer, Runnable consumer) {
+        Runnable[] tasks = new Runnable[pairs * 2];
+        for (int i = 0; i < pairs; i++) {
+            tasks[i] = producer;
+            tasks[pairs + i] = consumer;
+        }
+        runThreads(tasks);
+    }
+
+    /**
+     * Runs a producer and a consumer on two new threads and waits for both.
+     *
+     * @param producer the producer's work
+     * @param consumer the consumer's work
+     */
+    static void runPair(Runnable producer, Runnable consumer) {
+        runThreads(new Runnable[] { producer, consumer });
+    }
+
+    /**
+     * Runs each task on its own new platform thread and waits for all of them.
+     *
+     * @param tasks the work for each thread
+     */
+    static void runThreads(Runnable[] tasks) {
+        Thread[] threads = new Thread[tasks.length];
+        for (int i = 0; i < tasks.length; i++) {
+            threads[i] = new Thread(tasks[i]);
+            threads[i].start();
+        }
+        try {
+            for (Thread t : threads) {
+                t.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Runs a round repeatedly and prints the average nanoseconds per operation
+     * and the resulting throughput.
+     *
+     * @param label a description printed with the result
+     * @param ops   the number of operations performed by one round
+     * @param round the work to time
+     */
+    static void time(String label, long ops, Runnable round) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            round.run();
+        }
+        long total = 0;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            round.run();
+            total += System.nanoTime() - start;
+        }
+        double nsPerOp = (double) total / MEASURED_ROUNDS / ops;
+        System.out.printf("%-40s %8.2f ns/op %10.1f Mops/s%n", label, nsPerOp, 1000.0 / nsPerOp);
+    }
+}
@@ -0,0 +1,44 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * A JDK Flight Recorder event for a consumer that had to wait because a
+ * queue was empty. The event's duration is the time spent waiting. Only waits
+ * longer than the threshold are recorded, 20 ms by default, the same as the
+ * JDK's own thread park and monitor wait events.
+ *
+ * The event is only created once a consumer actually has to wait, and costs
+ * nothing while JFR is not recording.
+ */
+@Name("circularqueue.ConsumerWait")
+@Label("Queue Consumer Wait")
+@Category("Circular Queue")
+@Description("A consumer waited for an element in an empty queue")
+@Threshold("20 ms")
+public class QueueConsumerWaitEvent extends jdk.jfr.Event {
+
+    @Label("Queue Class")
+    Class<?> queueClass;
+
+    @Label("Timed Out")
+    boolean timedOut;
+
+    /**
+     * Ends the event and commits it with the given details, if the event is
+     * enabled and lasted longer than its threshold.
+     *
+     * @param queueClass the class of the queue that was empty
+     * @param timedOut   true if the consumer gave up without an element
+     */
+    void commit(Class<?> queueClass, boolean timedOut) {
+        end();
+        if (shouldCommit()) {
+            this.queueClass = queueClass;
+            this.timedOut = timedOut;
+            commit();
+        }
+    }
+}
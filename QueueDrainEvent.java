@@ -0,0 +1,54 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * A JDK Flight Recorder event for a batch of elements drained from a queue in
+ * one call. The event's duration covers handing every element to the
+ * destination, so for a drain into a callback it includes the callback's
+ * work. Drains that remove nothing are not recorded.
+ *
+ * Like every JFR event, it costs nothing while JFR is not recording.
+ */
+@Name("circularqueue.Drain")
+@Label("Queue Drain")
+@Category("Circular Queue")
+@Description("A batch of elements was drained from a queue")
+@Threshold("0 ms")
+public class QueueDrainEvent extends jdk.jfr.Event {
+
+    @Label("Queue Class")
+    Class<?> queueClass;
+
+    @Label("Elements Drained")
+    int elementsDrained;
+
+    @Label("Max Elements")
+    @Description("The most elements the caller asked for")
+    int maxElements;
+
+    @Label("Elements Remaining")
+    int elementsRemaining;
+
+    /**
+     * Ends the event and commits it with the given details, if the event is
+     * enabled, lasted longer than its threshold and drained something.
+     *
+     * @param queueClass        the class of the drained queue
+     * @param elementsDrained   the number of elements removed
+     * @param maxElements       the most elements the caller asked for
+     * @param elementsRemaining the number of elements left in the queue
+     */
+    void commit(Class<?> queueClass, int elementsDrained, int maxElements, int elementsRemaining) {
+        end();
+        if (elementsDrained > 0 && shouldCommit()) {
+            this.queueClass = queueClass;
+            this.elementsDrained = elementsDrained;
+            this.maxElements = maxElements;
+            this.elementsRemaining = elementsRemaining;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Measures the latency distribution of MyArrayQueue operations, rather than
+ * the average cost that {@link QueueBenchmark} reports. The interesting part
+ * is the tail: an enqueue that doubles the backing array copies every element,
+ * and averages hide those pauses.
+ *
+ * Operations are issued by a fixed-rate load generator: operation i is due at
+ * {@code start + i * interval}, whether or not the previous one has finished.
+ * Each operation records two latencies:
+ *
+ * <ul>
+ * <li>service time, from when the operation actually started to when it
+ * returned. This is what a naive timing loop measures. It suffers from
+ * coordinated omission: while the loop is stuck in a slow resize, it does
+ * not issue the operations that would have had to wait for it, so the pause
+ * is counted once instead of once per delayed operation.</li>
+ * <li>response time, from when the operation was due to when it returned.
+ * This includes the time spent waiting behind a slow predecessor, as a real
+ * caller arriving at a fixed rate would experience, so it corrects for
+ * coordinated omission.</li>
+ * </ul>
+ *
+ * Latencies go into a {@link LatencyHistogram} per operation type, and
+ * p50/p99/p99.9/max are printed for each. Every round fills a new queue with
+ * the given number of elements, so it goes through every resize from its
+ * initial capacity, and then drains it with a peek and a dequeue per
+ * element. The scenarios vary the initial capacity and growth policy, and
+ * the last one runs the same rounds on a {@link SegmentedArrayQueue}, which
+ * grows by linking chunks instead of copying.
+ *
+ * Run with {@code java QueueLatencyBenchmark [opsPerSecond] [elements]}; the
+ * defaults are 2,000,000 operations per second and 2^20 elements. The rate
+ * must be one the machine can sustain between resizes, or every operation
+ * queues up behind the previous one and the response times only measure the
+ * backlog.
+ */
+public class QueueLatencyBenchmark {
+
+    /** Number of rounds run before measuring, to let the JIT warm up. */
+    private static final int WARMUP_ROUNDS = 1;
+
+    /** Number of rounds that are measured. */
+    private static final int MEASURED_ROUNDS = 3;
+
+    /** The operation types, indexing the histograms. */
+    private static final int ENQUEUE = 0;
+    private static final int PEEK = 1;
+    private static final int DEQUEUE = 2;
+
+    /** Names of the operation types, for printing. */
+    private static final String[] OPERATION_NAMES = { "enqueue", "peek", "dequeue" };
+
+    /** Results are written here so the JIT cannot eliminate the work. */
+    static volatile Object sink;
+
+    /** Response times per operation type, measured from when each operation was due. */
+    private static final LatencyHistogram[] responseTimes = newHistograms();
+
+    /** Service times per operation type, measured from when each operation started. */
+    private static final LatencyHistogram[] serviceTimes = newHistograms();
+
+    /**
+     * The three operations a round issues, for one queue class, so the same
+     * round runs on queues that share no interface.
+     *
+     * @param <Q> the queue class
+     */
+    private static final class Operations<Q> {
+
+        final BiConsumer<Q, Object> enqueue;
+        final Function<Q, Object> peek;
+        final Function<Q, Object> dequeue;
+
+        Operations(BiConsumer<Q, Object> enqueue, Function<Q, Object> peek, Function<Q, Object> dequeue) {
+            this.enqueue = enqueue;
+            this.peek = peek;
+            this.dequeue = dequeue;
+        }
+    }
+
+    /** The operations of MyArrayQueue. */
+    private static final Operations<MyArrayQueue> MY_ARRAY_QUEUE =
+            new Operations<>(MyArrayQueue::enqueue, MyArrayQueue::peek, MyArrayQueue::dequeue);
+
+    /** The operations of SegmentedArrayQueue. */
+    private static final Operations<SegmentedArrayQueue> SEGMENTED_ARRAY_QUEUE = new Operations<>(
+            SegmentedArrayQueue::enqueue, SegmentedArrayQueue::peek, SegmentedArrayQueue::dequeue);
+
+    /**
+     * Runs every scenario at the rate and element count given in args.
+     *
+     * @param args the target operations per second and the number of elements
+     *             per round, both optional.
+     */
+    public static void main(String[] args) {
+        long opsPerSecond = args.length > 0 ? Long.parseLong(args[0]) : 2_000_000;
+        int elements = args.length > 1 ? Integer.parseInt(args[1]) : 1 << 20;
+        if (opsPerSecond < 1 || opsPerSecond > 1_000_000_000 || elements < 1) {
+            throw new IllegalArgumentException("Rate must be between 1 and 10^9 and elements >= 1");
+        }
+        long intervalNanos = 1_000_000_000 / opsPerSecond;
+
+        Object[] values = new Object[elements];
+        for (int i = 0; i < elements; i++) {
+            values[i] = i;
+        }
+
+        System.out.println("Rate " + opsPerSecond + " ops/s, " + elements + " elements per round, times in ns");
+        run("initial capacity 10, doubling", () -> new MyArrayQueue(10), MY_ARRAY_QUEUE, values, intervalNanos);
+        run("initial capacity 10, power-of-two doubling", () -> new MyArrayQueue(10, true), MY_ARRAY_QUEUE, values,
+                intervalNanos);
+        run("initial capacity 10, doubling, shrink at 25%", () -> {
+            MyArrayQueue q = new MyArrayQueue(10);
+            q.setShrinkPolicy(ShrinkPolicy.DEFAULT);
+            return q;
+        }, MY_ARRAY_QUEUE, values, intervalNanos);
+        run("initial capacity " + elements + ", never resizes", () -> new MyArrayQueue(elements), MY_ARRAY_QUEUE,
+                values, intervalNanos);
+        run("SegmentedArrayQueue, 1024-element chunks", () -> new SegmentedArrayQueue(), SEGMENTED_ARRAY_QUEUE,
+                values, intervalNanos);
+    }
+
+    /**
+     * Runs the warm-up and measured rounds of one scenario and prints its
+     * latency percentiles.
+     *
+     * @param scenario      the name of the scenario
+     * @param factory       creates the empty queue for each round
+     * @param operations    the operations of the queue class
+     * @param values        the elements to enqueue in each round
+     * @param intervalNanos time between the start of consecutive operations
+     * @param <Q>           the queue class
+     */
+    private static <Q> void run(String scenario, Supplier<Q> factory, Operations<Q> operations, Object[] values,
+            long intervalNanos) {
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            if (round == WARMUP_ROUNDS) {
+                reset(responseTimes);
+                reset(serviceTimes);
+            }
+            // Collect now, so garbage left by earlier rounds and scenarios
+            // does not trigger a collection in the middle of this one.
+            System.gc();
+            runRound(factory.get(), operations, values, intervalNanos);
+        }
+
+        System.out.println("== " + scenario);
+        System.out.printf("%-8s %-9s %9s %9s %9s %9s %11s%n", "op", "latency", "count", "p50", "p99", "p99.9",
+                "max");
+        for (int type = ENQUEUE; type <= DEQUEUE; type++) {
+            print(OPERATION_NAMES[type], "response", responseTimes[type]);
+            print(OPERATION_NAMES[type], "service", serviceTimes[type]);
+        }
+    }
+
+    /**
+     * Enqueues every value into the queue, then peeks and dequeues until it is
+     * empty, issuing one operation per interval and recording the latency of
+     * each.
+     *
+     * @param q             the empty queue
+     * @param operations    the operations of the queue class
+     * @param values        the elements to enqueue
+     * @param intervalNanos time between the start of consecutive operations
+     * @param <Q>           the queue class
+     */
+    private static <Q> void runRound(Q q, Operations<Q> operations, Object[] values, long intervalNanos) {
+        BiConsumer<Q, Object> enqueue = operations.enqueue;
+        Function<Q, Object> peek = operations.peek;
+        Function<Q, Object> dequeue = operations.dequeue;
+        long start = System.nanoTime();
+        long op = 0;
+        for (Object value : values) {
+            long due = start + op++ * intervalNanos;
+            long began = waitUntil(due);
+            enqueue.accept(q, value);
+            record(ENQUEUE, due, began);
+        }
+        for (int i = 0; i < values.length; i++) {
+            long due = start + op++ * intervalNanos;
+            long began = waitUntil(due);
+            sink = peek.apply(q);
+            record(PEEK, due, began);
+
+            due = start + op++ * intervalNanos;
+            began = waitUntil(due);
+            sink = dequeue.apply(q);
+            record(DEQUEUE, due, began);
+        }
+    }
+
+    /**
+     * Spins until the given time, unless it has already passed.
+     *
+     * @param due the time an operation is due, from System.nanoTime()
+     * @return the time the operation actually starts.
+     */
+    private static long waitUntil(long due) {
+        long now;
+        while ((now = System.nanoTime()) < due) {
+            Thread.onSpinWait();
+        }
+        return now;
+    }
+
+    /**
+     * Records the response and service time of an operation that has just
+     * returned.
+     *
+     * @param type  the operation type
+     * @param due   when the operation was due
+     * @param began when the operation actually started
+     */
+    private static void record(int type, long due, long began) {
+        long end = System.nanoTime();
+        responseTimes[type].recordValue(end - due);
+        serviceTimes[type].recordValue(end - began);
+    }
+
+    /**
+     * Prints one line of percentiles.
+     *
+     * @param operation the operation name
+     * @param latency   which latency the histogram holds
+     * @param h         the histogram
+     */
+    private static void print(String operation, String latency, LatencyHistogram h) {
+        System.out.printf("%-8s %-9s %9d %9d %9d %9d %11d%n", operation, latency, h.getTotalCount(),
+                h.getValueAtPercentile(50), h.getValueAtPercentile(99), h.getValueAtPercentile(99.9),
+                h.getMaxValue());
+    }
+
+    /**
+     * Creates one empty histogram per operation type.
+     *
+     * @return the histograms.
+     */
+    private static LatencyHistogram[] newHistograms() {
+        LatencyHistogram[] histograms = new LatencyHistogram[OPERATION_NAMES.length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+
+    /**
+     * Clears every histogram in an array.
+     *
+     * @param histograms the histograms
+     */
+    private static void reset(LatencyHistogram[] histograms) {
+        for (LatencyHistogram h : histograms) {
+            h.reset();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * A JDK Flight Recorder event for a producer that had to wait because a
+ * bounded queue was full. The event's duration is the time spent waiting.
+ * Only waits longer than the threshold are recorded, 20 ms by default, the
+ * same as the JDK's own thread park and monitor wait events.
+ *
+ * The event is only created once a producer actually has to wait, and costs
+ * nothing while JFR is not recording.
+ */
+@Name("circularqueue.ProducerBlocked")
+@Label("Queue Producer Blocked")
+@Category("Circular Queue")
+@Description("A producer waited for room in a full queue")
+@Threshold("20 ms")
+public class QueueProducerBlockedEvent extends jdk.jfr.Event {
+
+    @Label("Queue Class")
+    Class<?> queueClass;
+
+    @Label("Capacity")
+    @Description("The number of elements the queue holds when full")
+    int capacity;
+
+    @Label("Timed Out")
+    boolean timedOut;
+
+    /**
+     * Ends the event and commits it with the given details, if the event is
+     * enabled and lasted longer than its threshold.
+     *
+     * @param queueClass the class of the queue that was full
+     * @param capacity   the number of elements the queue holds when full
+     * @param timedOut   true if the producer gave up without adding its element
+     */
+    void commit(Class<?> queueClass, int capacity, boolean timedOut) {
+        end();
+        if (shouldCommit()) {
+            this.queueClass = queueClass;
+            this.capacity = capacity;
+            this.timedOut = timedOut;
+            commit();
+        }
+    }
+}
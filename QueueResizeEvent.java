@@ -0,0 +1,55 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * A JDK Flight Recorder event for a queue replacing its backing array, either
+ * growing when full or shrinking after a burst. The event's duration covers
+ * allocating the new array and copying the elements into it, so a recording
+ * shows which resizes line up with a stall, a GC or a CPU spike.
+ *
+ * Like every JFR event, it costs nothing while JFR is not recording: the
+ * event methods are empty until a recording enables the event, and the JIT
+ * then removes the unused event object.
+ */
+@Name("circularqueue.Resize")
+@Label("Queue Resize")
+@Category("Circular Queue")
+@Description("A queue replaced its backing array")
+@Threshold("0 ms")
+public class QueueResizeEvent extends jdk.jfr.Event {
+
+    @Label("Queue Class")
+    Class<?> queueClass;
+
+    @Label("Old Capacity")
+    int oldCapacity;
+
+    @Label("New Capacity")
+    int newCapacity;
+
+    @Label("Elements Copied")
+    int elementsCopied;
+
+    /**
+     * Ends the event and commits it with the given details, if the event is
+     * enabled and lasted longer than its threshold.
+     *
+     * @param queueClass     the class of the queue that resized
+     * @param oldCapacity    the capacity before the resize
+     * @param newCapacity    the capacity after the resize
+     * @param elementsCopied the number of elements moved to the new array
+     */
+    void commit(Class<?> queueClass, int oldCapacity, int newCapacity, int elementsCopied) {
+        end();
+        if (shouldCommit()) {
+            this.queueClass = queueClass;
+            this.oldCapacity = oldCapacity;
+            this.newCapacity = newCapacity;
+            this.elementsCopied = elementsCopied;
+            commit();
+        }
+    }
+}
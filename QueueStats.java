@@ -0,0 +1,212 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Operation counters for one {@link MyArrayQueue}, exposed as a JMX MBean
+ * named {@code circularqueue:type=MyArrayQueue,name=<name>}. Created by
+ * {@link MyArrayQueue#enableStats}; a queue without statistics pays only a
+ * null check per operation.
+ *
+ * MyArrayQueue is not thread-safe, so at any moment only one thread updates
+ * the counters. That makes striped counters such as LongAdder unnecessary:
+ * their compare-and-set on every increment would cost more than the enqueue
+ * itself. Instead each counter is a plain field that its single writer
+ * updates and publishes with an opaque store, which compiles to an ordinary
+ * store, and JMX reads it with an opaque load. A reader on another thread
+ * therefore never sees a torn value, only a slightly stale one.
+ *
+ * To keep dequeue free of bookkeeping, dequeues are not counted at all: every
+ * element that was enqueued and is no longer in the queue has been dequeued,
+ * so the dequeue count is derived from the enqueue count and the current
+ * size. Capacity and size are read straight from the queue, so they and the
+ * derived count are likewise a snapshot.
+ */
+public class QueueStats implements QueueStatsMXBean {
+
+    /** The MBean domain under which queues are registered. */
+    public static final String DOMAIN = "circularqueue";
+
+    /** The queue being counted. */
+    private final MyArrayQueue queue;
+
+    /** The name the queue is registered under. */
+    private final String name;
+
+    /** The name of the registered MBean. */
+    private final ObjectName objectName;
+
+    // Written only by the thread operating on the queue, with opaque stores.
+    private long enqueues;
+    private long uncountedElements;
+    private long resizes;
+    private long resizeNanos;
+    private int highWatermark;
+
+    private static final VarHandle ENQUEUES;
+    private static final VarHandle UNCOUNTED_ELEMENTS;
+    private static final VarHandle RESIZES;
+    private static final VarHandle RESIZE_NANOS;
+    private static final VarHandle HIGH_WATERMARK;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            ENQUEUES = lookup.findVarHandle(QueueStats.class, "enqueues", long.class);
+            UNCOUNTED_ELEMENTS = lookup.findVarHandle(QueueStats.class, "uncountedElements", long.class);
+            RESIZES = lookup.findVarHandle(QueueStats.class, "resizes", long.class);
+            RESIZE_NANOS = lookup.findVarHandle(QueueStats.class, "resizeNanos", long.class);
+            HIGH_WATERMARK = lookup.findVarHandle(QueueStats.class, "highWatermark", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Creates the statistics for a queue and registers them with the platform
+     * MBean server.
+     *
+     * @param queue the queue to count
+     * @param name  the name to register the queue under
+     * @throws IllegalArgumentException if another queue is already registered
+     *                                  under the name.
+     */
+    QueueStats(MyArrayQueue queue, String name) {
+        this.queue = queue;
+        this.name = name;
+        // Elements already queued will be dequeued without having been counted in.
+        uncountedElements = queue.size();
+        highWatermark = queue.size();
+        try {
+            objectName = new ObjectName(DOMAIN + ":type=MyArrayQueue,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (InstanceAlreadyExistsException e) {
+            throw new IllegalArgumentException("A queue named " + name + " is already registered", e);
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register queue " + name, e);
+        }
+    }
+
+    /**
+     * Counts elements added to the queue.
+     *
+     * @param n the number of elements added
+     */
+    void enqueued(int n) {
+        ENQUEUES.setOpaque(this, enqueues + n);
+    }
+
+    /**
+     * Raises the high-watermark if the queue has grown past it. The queue
+     * only calls this when its size may have reached a new peak.
+     *
+     * @param size the number of elements in the queue
+     */
+    void reached(int size) {
+        if (size > highWatermark) {
+            HIGH_WATERMARK.setOpaque(this, size);
+        }
+    }
+
+    /**
+     * Returns the high-watermark; for the thread operating on the queue.
+     *
+     * @return the largest size seen.
+     */
+    int highWatermark() {
+        return highWatermark;
+    }
+
+    /**
+     * Accounts for the contents of the queue being replaced wholesale, as by
+     * a restore from a snapshot, which is neither an enqueue nor a dequeue.
+     *
+     * @param oldSize the number of elements discarded
+     * @param newSize the number of elements now in the queue
+     */
+    void replaced(int oldSize, int newSize) {
+        UNCOUNTED_ELEMENTS.setOpaque(this, uncountedElements - oldSize + newSize);
+    }
+
+    /**
+     * Counts a replacement of the backing array.
+     *
+     * @param nanos the time taken to allocate the new array and copy into it
+     */
+    void resized(long nanos) {
+        RESIZES.setOpaque(this, resizes + 1);
+        RESIZE_NANOS.setOpaque(this, resizeNanos + nanos);
+    }
+
+    /**
+     * Removes the MBean from the platform MBean server.
+     */
+    void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(objectName);
+        } catch (InstanceNotFoundException e) {
+            // Already unregistered.
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not unregister queue " + name, e);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getEnqueues() {
+        return (long) ENQUEUES.getOpaque(this);
+    }
+
+    @Override
+    public long getDequeues() {
+        // Everything that went in and is no longer there has been dequeued.
+        long in = (long) ENQUEUES.getOpaque(this) + (long) UNCOUNTED_ELEMENTS.getOpaque(this);
+        return Math.max(0, in - queue.size());
+    }
+
+    @Override
+    public long getResizes() {
+        return (long) RESIZES.getOpaque(this);
+    }
+
+    @Override
+    public long getResizeNanos() {
+        return (long) RESIZE_NANOS.getOpaque(this);
+    }
+
+    @Override
+    public int getHighWatermark() {
+        return (int) HIGH_WATERMARK.getOpaque(this);
+    }
+
+    @Override
+    public int getCapacity() {
+        return queue.capacity();
+    }
+
+    @Override
+    public int getSize() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the statistics as a String for printing.
+     *
+     * @return the counters and gauges.
+     */
+    public String toString() {
+        return name + ": enqueues=" + getEnqueues() + ", dequeues=" + getDequeues() + ", resizes=" + getResizes()
+                + ", resizeNanos=" + getResizeNanos() + ", highWatermark=" + getHighWatermark() + ", capacity="
+                + getCapacity() + ", size=" + getSize();
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * The management interface of {@link QueueStats}: what JMX clients such as
+ * JConsole or VisualVM see for each named {@link MyArrayQueue}. Every
+ * attribute is read-only.
+ */
+public interface QueueStatsMXBean {
+
+    /** @return the name the queue was registered under. */
+    String getName();
+
+    /** @return the number of elements enqueued since statistics were enabled. */
+    long getEnqueues();
+
+    /** @return the number of elements dequeued, drained or overwritten since statistics were enabled. */
+    long getDequeues();
+
+    /** @return the number of times the backing array has been replaced, growing or shrinking. */
+    long getResizes();
+
+    /** @return the total time spent allocating and copying during resizes, in nanoseconds. */
+    long getResizeNanos();
+
+    /** @return the largest number of elements the queue has held since statistics were enabled. */
+    int getHighWatermark();
+
+    /** @return the current length of the backing array. */
+    int getCapacity();
+
+    /** @return the current number of elements in the queue. */
+    int getSize();
+}
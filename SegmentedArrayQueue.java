@@ -0,0 +1,407 @@
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * An unbounded FIFO queue stored in a linked list of fixed-size array chunks,
+ * as an alternative to {@link MyArrayQueue} for queues that grow large.
+ *
+ * MyArrayQueue grows by doubling its backing array and copying every element
+ * into the new one. That copy is a pause proportional to the queue's size,
+ * and while it runs the old and the new array are both live, three times
+ * the memory of the old array. This queue never copies: when the tail chunk
+ * is full, enqueue links a new chunk after it, and when dequeue empties the
+ * head chunk, the chunk is unlinked. Every operation therefore does a
+ * bounded amount of work, and memory follows the size of the queue one chunk
+ * at a time, in both directions.
+ *
+ * Unlinked chunks are kept in a small pool and reused by later enqueues, so
+ * a queue that oscillates around a chunk boundary does not allocate a chunk
+ * on every crossing. Chunks beyond the pool's limit are left to the garbage
+ * collector.
+ *
+ * Like MyArrayQueue, this class is not thread-safe, and null elements are
+ * allowed.
+ */
+public class SegmentedArrayQueue {
+
+    /** The default number of elements per chunk. */
+    protected static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    /** The default number of empty chunks kept for reuse. */
+    protected static final int DEFAULT_MAX_POOLED_CHUNKS = 4;
+
+    /** Number of elements each chunk holds. */
+    protected final int chunkSize;
+
+    /** The most empty chunks kept in the pool. */
+    protected final int maxPooledChunks;
+
+    /** The chunk holding the front element. */
+    protected Chunk head;
+
+    /** Index of the front element within the head chunk. */
+    protected int headIndex;
+
+    /** The chunk the next element is enqueued into. */
+    protected Chunk tail;
+
+    /** Index within the tail chunk at which the next element is enqueued. */
+    protected int tailIndex;
+
+    /** Number of elements currently in the queue. */
+    protected int numElements;
+
+    /** Number of chunks linked between head and tail, inclusive. */
+    protected int chunks;
+
+    /** Empty chunks kept for reuse, linked through their next fields. */
+    protected Chunk pool;
+
+    /** Number of chunks in the pool. */
+    protected int pooledChunks;
+
+    /**
+     * A fixed-size array of elements and the link to the chunk after it.
+     */
+    protected static final class Chunk {
+
+        /** The elements, filled from index 0 upwards. */
+        final Object[] elements;
+
+        /** The next chunk towards the tail, or the next pooled chunk. */
+        Chunk next;
+
+        Chunk(int size) {
+            elements = new Object[size];
+        }
+    }
+
+    /**
+     * Constructor: Sets up an empty queue with the default chunk size (1024)
+     * and pool limit (4 chunks).
+     */
+    public SegmentedArrayQueue() {
+        this(DEFAULT_CHUNK_SIZE, DEFAULT_MAX_POOLED_CHUNKS);
+    }
+
+    /**
+     * Constructor: Sets up an empty queue with the given chunk size and pool
+     * limit. Larger chunks mean fewer chunk changes, smaller ones a finer
+     * grain of memory use.
+     *
+     * @param chunkSize       the number of elements per chunk
+     * @param maxPooledChunks the most empty chunks to keep for reuse, 0 for none
+     */
+    public SegmentedArrayQueue(int chunkSize, int maxPooledChunks) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be >= 1");
+        }
+        if (maxPooledChunks < 0) {
+            throw new IllegalArgumentException("Max pooled chunks must be >= 0");
+        }
+        this.chunkSize = chunkSize;
+        this.maxPooledChunks = maxPooledChunks;
+        head = new Chunk(chunkSize);
+        tail = head;
+        chunks = 1;
+    }
+
+    /**
+     * Check if the queue is empty.
+     *
+     * @return true if the number of elements is zero, false otherwise.
+     */
+    public boolean isEmpty() {
+        return numElements == 0;
+    }
+
+    /**
+     * Returns the number of elements currently in the queue.
+     *
+     * @return the number of elements.
+     */
+    public int size() {
+        return numElements;
+    }
+
+    /**
+     * Returns how many elements the linked chunks can hold, counting the
+     * slots already dequeued from the head chunk.
+     *
+     * @return the number of linked chunks times the chunk size.
+     */
+    public long capacity() {
+        return (long) chunks * chunkSize;
+    }
+
+    /**
+     * Returns the number of empty chunks currently kept for reuse.
+     *
+     * @return the size of the chunk pool.
+     */
+    public int pooledChunks() {
+        return pooledChunks;
+    }
+
+    /**
+     * Returns the element at the front of the queue without removing it.
+     *
+     * @return the element at the front, or null if the queue is empty.
+     */
+    public Object peek() {
+        return isEmpty() ? null : head.elements[headIndex];
+    }
+
+    /**
+     * Adds an element to the tail of the queue. If the tail chunk is full, a
+     * chunk from the pool, or a new one, is linked after it; no element is
+     * ever copied.
+     *
+     * @param theElement the element to be added to the queue.
+     * @throws IllegalStateException if another chunk would take the size
+     *                               past Integer.MAX_VALUE.
+     */
+    public void enqueue(Object theElement) {
+        if (tailIndex == chunkSize) {
+            // Checked once per chunk, so the size cannot overflow within the next one.
+            if (numElements > Integer.MAX_VALUE - chunkSize) {
+                throw new IllegalStateException("Queue is full");
+            }
+            Chunk chunk = takeChunk();
+            tail.next = chunk;
+            tail = chunk;
+            tailIndex = 0;
+            chunks++;
+        }
+        tail.elements[tailIndex++] = theElement;
+        numElements++;
+    }
+
+    /**
+     * Removes an element from the front of the queue and returns it.
+     *
+     * @return the removed element from the front of the queue.
+     * @throws IllegalStateException if the queue is empty.
+     */
+    public Object dequeue() throws IllegalStateException {
+        if (isEmpty()) {
+            throw new IllegalStateException("Queue is empty");
+        }
+        return removeFront();
+    }
+
+    /**
+     * Removes an element from the front of the queue and returns it, or
+     * returns null if the queue is empty.
+     *
+     * @return the removed element, or null if the queue is empty.
+     */
+    public Object poll() {
+        return isEmpty() ? null : removeFront();
+    }
+
+    /**
+     * Removes the front element of a non-empty queue and returns it,
+     * unlinking the head chunk once it has been emptied.
+     *
+     * @return the removed element.
+     */
+    private Object removeFront() {
+        Object removedElement = head.elements[headIndex];
+        // Clear the slot to assist garbage collection.
+        head.elements[headIndex++] = null;
+        numElements--;
+        if (numElements == 0) {
+            // The head is the tail: start filling it again from index 0
+            // rather than moving on to another chunk.
+            headIndex = 0;
+            tailIndex = 0;
+        } else if (headIndex == chunkSize) {
+            Chunk emptied = head;
+            head = emptied.next;
+            headIndex = 0;
+            chunks--;
+            releaseChunk(emptied);
+        }
+        return removedElement;
+    }
+
+    /**
+     * Returns an empty chunk from the pool, or a new one if the pool is empty.
+     *
+     * @return the chunk.
+     */
+    private Chunk takeChunk() {
+        Chunk chunk = pool;
+        if (chunk == null) {
+            return new Chunk(chunkSize);
+        }
+        pool = chunk.next;
+        chunk.next = null;
+        pooledChunks--;
+        return chunk;
+    }
+
+    /**
+     * Keeps an emptied chunk for reuse if the pool has room. Its slots have
+     * all been cleared by removeFront().
+     *
+     * @param chunk the chunk, no longer linked into the queue
+     */
+    private void releaseChunk(Chunk chunk) {
+        if (pooledChunks < maxPooledChunks) {
+            chunk.next = pool;
+            pool = chunk;
+            pooledChunks++;
+        } else {
+            chunk.next = null;
+        }
+    }
+
+    /**
+     * Returns a Spliterator over the elements of the queue, in FIFO order. It
+     * reports an exact size, and so does every Spliterator split from it.
+     *
+     * The Spliterator covers the elements queued when it is created, and the
+     * queue must not be modified while it is in use.
+     *
+     * @return a Spliterator over the elements.
+     */
+    public Spliterator<Object> spliterator() {
+        return new ChunkSpliterator(head, headIndex, numElements, chunkSize);
+    }
+
+    /**
+     * Returns a sequential Stream over the elements of the queue, in FIFO
+     * order; call parallel() on it to aggregate on several threads. The queue
+     * must not be modified until the stream has finished.
+     *
+     * @return a Stream over the elements.
+     */
+    public Stream<Object> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Returns the queue as a String for printing, in FIFO order.
+     *
+     * @return the elements, formatted like a List.
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        Chunk chunk = head;
+        int index = headIndex;
+        for (int i = 0; i < numElements; i++) {
+            if (index == chunkSize) {
+                chunk = chunk.next;
+                index = 0;
+            }
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(chunk.elements[index++]);
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * Covers a run of elements starting at an index in a chunk. A split hands
+     * the first half of the run to a new Spliterator and moves this one past
+     * it, following the chunk links, so the split costs one step per chunk
+     * skipped and both halves know their exact size.
+     */
+    private static final class ChunkSpliterator implements Spliterator<Object> {
+
+        /** The chunk holding the next element. */
+        private Chunk chunk;
+
+        /** Index of the next element in the chunk; may equal the chunk size. */
+        private int index;
+
+        /** Number of elements still to be covered. */
+        private int remaining;
+
+        /** Number of elements each chunk holds. */
+        private final int chunkSize;
+
+        /**
+         * Creates a Spliterator over a run of elements.
+         *
+         * @param chunk     the chunk holding the first element
+         * @param index     the index of the first element in the chunk
+         * @param remaining the number of elements in the run
+         * @param chunkSize the number of elements each chunk holds
+         */
+        ChunkSpliterator(Chunk chunk, int index, int remaining, int chunkSize) {
+            this.chunk = chunk;
+            this.index = index;
+            this.remaining = remaining;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public Spliterator<Object> trySplit() {
+            int half = remaining >>> 1;
+            if (half == 0) {
+                return null;
+            }
+            ChunkSpliterator prefix = new ChunkSpliterator(chunk, index, half, chunkSize);
+            // Skip the first half, leaving index in (0, chunkSize].
+            int i = index + half;
+            while (i > chunkSize) {
+                chunk = chunk.next;
+                i -= chunkSize;
+            }
+            index = i;
+            remaining -= half;
+            return prefix;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Object> action) {
+            Objects.requireNonNull(action);
+            if (remaining == 0) {
+                return false;
+            }
+            if (index == chunkSize) {
+                chunk = chunk.next;
+                index = 0;
+            }
+            remaining--;
+            action.accept(chunk.elements[index++]);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Object> action) {
+            Objects.requireNonNull(action);
+            // Walk the run one chunk's worth of array at a time.
+            while (remaining > 0) {
+                if (index == chunkSize) {
+                    chunk = chunk.next;
+                    index = 0;
+                }
+                Object[] elements = chunk.elements;
+                int end = index + Math.min(remaining, chunkSize - index);
+                remaining -= end - index;
+                for (int i = index; i < end; i++) {
+                    action.accept(elements[i]);
+                }
+                index = end;
+            }
+        }
+
+        @Override
+        public long estimateSize() {
+            return remaining;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED;
+        }
+    }
+}
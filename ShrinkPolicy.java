@@ -0,0 +1,108 @@
+import com.sun.management.HotSpotDiagnosticMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Decides when a {@link MyArrayQueue} should release memory after a burst.
+ * When occupancy falls below the configured percentage, the backing array is
+ * halved, but never below the capacity the queue was created with.
+ *
+ * The percentage must be below 50, which gives the policy hysteresis: right
+ * after halving, the queue is less than 100% full, so the next enqueue cannot
+ * immediately double it again, and it takes many more dequeues before the next
+ * halving. The copy done by each halving is paid for by the dequeues that
+ * emptied the array, so relocation is amortized O(1) per operation.
+ *
+ * A policy holds no per-queue state, so one instance can be shared by many
+ * queues, with a single listener collecting statistics for all of them.
+ */
+public class ShrinkPolicy {
+
+    /**
+     * Receives a notification each time a queue shrinks its backing array.
+     */
+    public interface ShrinkListener {
+
+        /**
+         * Called after a queue has shrunk its backing array.
+         *
+         * @param oldCapacity    the length of the backing array before shrinking
+         * @param newCapacity    the length of the backing array after shrinking
+         * @param bytesReclaimed an estimate of the heap released, in bytes
+         */
+        void onShrink(int oldCapacity, int newCapacity, long bytesReclaimed);
+    }
+
+    /** Halves the backing array when the queue is less than 25% full. */
+    public static final ShrinkPolicy DEFAULT = new ShrinkPolicy(25, null);
+
+    /** Size of one array slot in bytes, looked up once. */
+    private static final int REFERENCE_BYTES = referenceBytes();
+
+    /** Occupancy, in percent of the capacity, below which the queue shrinks. */
+    private final int occupancyPercent;
+
+    /** The listener to notify on each shrink, or null. */
+    private final ShrinkListener listener;
+
+    /**
+     * Creates a policy that halves the backing array whenever occupancy falls
+     * below the given percentage.
+     *
+     * @param occupancyPercent the threshold, from 1 to 49 percent
+     * @param listener         the listener to notify on each shrink, or null
+     */
+    public ShrinkPolicy(int occupancyPercent, ShrinkListener listener) {
+        // At 50% or more, a halved queue could be full and grow again on the next enqueue.
+        if (occupancyPercent < 1 || occupancyPercent >= 50) {
+            throw new IllegalArgumentException("Occupancy percent must be between 1 and 49");
+        }
+        this.occupancyPercent = occupancyPercent;
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the new capacity for a queue, or its current capacity if it
+     * should not shrink. After a bulk removal this may be several halvings
+     * below the current capacity.
+     *
+     * @param numElements     the number of elements in the queue
+     * @param capacity        the current length of the backing array
+     * @param initialCapacity the capacity the queue was created with
+     * @return the capacity the queue should have.
+     */
+    int shrunkCapacity(int numElements, int capacity, int initialCapacity) {
+        // Halve repeatedly, so a bulk drain shrinks to the final size with one copy.
+        while (capacity > initialCapacity && numElements * 100L < (long) capacity * occupancyPercent) {
+            capacity = Math.max(capacity / 2, initialCapacity);
+        }
+        return capacity;
+    }
+
+    /**
+     * Reports a completed shrink to the listener, if there is one.
+     *
+     * @param oldCapacity the length of the backing array before shrinking
+     * @param newCapacity the length of the backing array after shrinking
+     */
+    void shrunk(int oldCapacity, int newCapacity) {
+        if (listener != null) {
+            listener.onShrink(oldCapacity, newCapacity, (long) (oldCapacity - newCapacity) * REFERENCE_BYTES);
+        }
+    }
+
+    /**
+     * Returns the size of an object reference in the running VM: 4 bytes with
+     * compressed oops, otherwise 8.
+     *
+     * @return the size of one array slot in bytes.
+     */
+    private static int referenceBytes() {
+        try {
+            HotSpotDiagnosticMXBean bean = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            return Boolean.parseBoolean(bean.getVMOption("UseCompressedOops").getValue()) ? 4 : 8;
+        } catch (RuntimeException | LinkageError e) {
+            // Not a HotSpot VM, or the option is unknown; assume uncompressed references.
+            return 8;
+        }
+    }
+}
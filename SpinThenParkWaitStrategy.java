@@ -0,0 +1,53 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A progressive {@link WaitStrategy}: it spins first, then yields, then parks
+ * the thread for periods that double from one microsecond up to one
+ * millisecond. A short wait is answered almost as fast as busy-spinning,
+ * while a long wait costs very little CPU. Since parked threads wake up on
+ * their own, producers never need to signal.
+ */
+public class SpinThenParkWaitStrategy implements WaitStrategy {
+
+    /** The shared instance; the strategy has no state. */
+    static final SpinThenParkWaitStrategy INSTANCE = new SpinThenParkWaitStrategy();
+
+    /** How many times to spin before yielding. */
+    private static final int SPIN_TRIES = 100;
+
+    /** How many times to yield before parking. */
+    private static final int YIELD_TRIES = 10;
+
+    /** The first park period. */
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+
+    /** The longest park period. */
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Override
+    public void await(BooleanSupplier ready) throws InterruptedException {
+        int tries = 0;
+        long parkNanos = MIN_PARK_NANOS;
+        while (!ready.getAsBoolean()) {
+            if (tries < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else if (tries < SPIN_TRIES + YIELD_TRIES) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(parkNanos);
+                parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            tries++;
+        }
+    }
+
+    @Override
+    public void signalAll() {
+        // Parked threads time out and re-check on their own.
+    }
+}
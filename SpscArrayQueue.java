@@ -0,0 +1,288 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Objects;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A bounded, lock-free circular queue for exactly one producer thread and one
+ * consumer thread, in the style of Lamport's single-producer/single-consumer
+ * ring as refined by FastFlow.
+ *
+ * The producer owns the producer index and the consumer owns the consumer
+ * index. Each side publishes its index with a release store, and reads the
+ * other side's index with an acquire load, so an element written into the
+ * array before the index is published is always visible to the other side.
+ * The two indexes live on separate, padded cache lines, and each side keeps a
+ * cached copy of the other side's index. The other side's index is only
+ * re-read when the cached value says the queue looks full (producer) or
+ * empty (consumer), so in steady state neither side touches the other's cache
+ * line on every operation.
+ *
+ * The indexes are long counters that never wrap; the slot for an index is
+ * found with a bit mask, so the capacity is rounded up to a power of two.
+ * Null elements are not permitted, since null is the "empty" result of
+ * {@link #poll()}.
+ *
+ * {@link #take()} and {@link #put} wait for the queue to change using the
+ * {@link WaitStrategy} chosen at construction, busy-spinning by default.
+ *
+ * @param <E> the type of elements held in the queue
+ */
+public class SpscArrayQueue<E> extends SpscConsumerFields<E> {
+
+    // Padding after the consumer fields, so nothing allocated next to the
+    // queue shares their cache line.
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+
+    /** Checked by consumers waiting in take(). */
+    private final BooleanSupplier notEmpty = () -> !isEmpty();
+
+    /** Checked by producers waiting in put(). */
+    private final BooleanSupplier notFull = () -> size() < capacity();
+
+    /**
+     * Constructor: Sets up an empty queue that can hold at least the given
+     * number of elements.
+     *
+     * @param capacity the capacity, rounded up to the next power of two
+     */
+    public SpscArrayQueue(int capacity) {
+        this(capacity, WaitStrategy.busySpin());
+    }
+
+    /**
+     * Constructor: Sets up an empty queue that can hold at least the given
+     * number of elements, using the given strategy to wait in {@link #take()}
+     * and {@link #put}.
+     *
+     * @param capacity     the capacity, rounded up to the next power of two
+     * @param waitStrategy how waiting threads wait for the queue to change
+     */
+    public SpscArrayQueue(int capacity, WaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+    }
+
+    /**
+     * Adds an element to the tail of the queue. Must only be called from the
+     * producer thread.
+     *
+     * @param e the element to add
+     * @return true if the element was added, false if the queue is full.
+     * @throws NullPointerException if the element is null.
+     */
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long p = producerIndex;
+        // Only look at the consumer's index when the cached value says we are full.
+        if (p - consumerIndexCache >= buffer.length) {
+            consumerIndexCache = (long) CONSUMER_INDEX.getAcquire(this);
+            if (p - consumerIndexCache >= buffer.length) {
+                return false;
+            }
+        }
+        buffer[(int) p & mask] = e;
+        // Publish the element: the consumer's acquire load of the index sees the write above.
+        PRODUCER_INDEX.setRelease(this, p + 1);
+        waitStrategy.signalAll();
+        return true;
+    }
+
+    /**
+     * Removes and returns the element at the front of the queue. Must only be
+     * called from the consumer thread.
+     *
+     * @return the front element, or null if the queue is empty.
+     */
+    public E poll() {
+        long c = consumerIndex;
+        // Only look at the producer's index when the cached value says we are empty.
+        if (c >= producerIndexCache) {
+            producerIndexCache = (long) PRODUCER_INDEX.getAcquire(this);
+            if (c >= producerIndexCache) {
+                return null;
+            }
+        }
+        int slot = (int) c & mask;
+        E removedElement = buffer[slot];
+        buffer[slot] = null;
+        // Hand the slot back: the producer's acquire load of the index sees it cleared.
+        CONSUMER_INDEX.setRelease(this, c + 1);
+        waitStrategy.signalAll();
+        return removedElement;
+    }
+
+    /**
+     * Returns the element at the front of the queue without removing it. Must
+     * only be called from the consumer thread.
+     *
+     * @return the front element, or null if the queue is empty.
+     */
+    public E peek() {
+        long c = consumerIndex;
+        if (c >= producerIndexCache) {
+            producerIndexCache = (long) PRODUCER_INDEX.getAcquire(this);
+            if (c >= producerIndexCache) {
+                return null;
+            }
+        }
+        return buffer[(int) c & mask];
+    }
+
+    /**
+     * Removes and returns the element at the front of the queue, waiting with
+     * the queue's {@link WaitStrategy} while it is empty. Must only be
+     * called from the consumer thread.
+     *
+     * @return the front element.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public E take() throws InterruptedException {
+        E e = poll();
+        if (e == null) {
+            QueueConsumerWaitEvent event = new QueueConsumerWaitEvent();
+            event.begin();
+            while ((e = poll()) == null) {
+                waitStrategy.await(notEmpty);
+            }
+            event.commit(getClass(), false);
+        }
+        return e;
+    }
+
+    /**
+     * Adds an element to the tail of the queue, waiting with the queue's
+     * {@link WaitStrategy} while it is full. Must only be
+     * called from the producer thread.
+     *
+     * @param e the element to add
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void put(E e) throws InterruptedException {
+        if (!offer(e)) {
+            QueueProducerBlockedEvent event = new QueueProducerBlockedEvent();
+            event.begin();
+            while (!offer(e)) {
+                waitStrategy.await(notFull);
+            }
+            event.commit(getClass(), capacity(), false);
+        }
+    }
+
+    /**
+     * Returns the number of elements in the queue. When called while the other
+     * thread is active, the result is only a snapshot.
+     *
+     * @return the number of elements.
+     */
+    public int size() {
+        long c = (long) CONSUMER_INDEX.getAcquire(this);
+        long p = (long) PRODUCER_INDEX.getAcquire(this);
+        return (int) (p - c);
+    }
+
+    /**
+     * Check if the queue is empty. When called while the other thread is
+     * active, the result is only a snapshot.
+     *
+     * @return true if the queue holds no elements.
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the number of elements the queue can hold.
+     *
+     * @return the capacity of the queue.
+     */
+    public int capacity() {
+        return buffer.length;
+    }
+}
+
+/**
+ * The backing array, with padding in front of it so the fields that follow do
+ * not share a cache line with the object header or a preceding object.
+ */
+abstract class SpscBufferFields<E> {
+
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+
+    /** An array to hold the items in the queue; its length is a power of two. */
+    protected final E[] buffer;
+
+    /** Bit mask used to wrap indices, always buffer.length - 1. */
+    protected final int mask;
+
+    /** How take() and put() wait for the queue to change. */
+    protected final WaitStrategy waitStrategy;
+
+    @SuppressWarnings("unchecked")
+    SpscBufferFields(int capacity, WaitStrategy waitStrategy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be >= 1");
+        }
+        int length = MyArrayQueue.roundUpToPowerOfTwo(capacity);
+        buffer = (E[]) new Object[length];
+        mask = length - 1;
+        this.waitStrategy = Objects.requireNonNull(waitStrategy);
+    }
+}
+
+/**
+ * Fields written by the producer thread, on their own cache line.
+ */
+abstract class SpscProducerFields<E> extends SpscBufferFields<E> {
+
+    long q00, q01, q02, q03, q04, q05, q06, q07;
+    long q10, q11, q12, q13, q14, q15, q16, q17;
+
+    /** Index of the next slot to fill; written only by the producer. */
+    protected long producerIndex;
+
+    /** The producer's last observed value of the consumer index. */
+    protected long consumerIndexCache;
+
+    SpscProducerFields(int capacity, WaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+    }
+}
+
+/**
+ * Fields written by the consumer thread, on their own cache line.
+ */
+abstract class SpscConsumerFields<E> extends SpscProducerFields<E> {
+
+    long r00, r01, r02, r03, r04, r05, r06, r07;
+    long r10, r11, r12, r13, r14, r15, r16, r17;
+
+    /** Index of the next slot to empty; written only by the consumer. */
+    protected long consumerIndex;
+
+    /** The consumer's last observed value of the producer index. */
+    protected long producerIndexCache;
+
+    /** Release/acquire access to the producer index. */
+    protected static final VarHandle PRODUCER_INDEX;
+
+    /** Release/acquire access to the consumer index. */
+    protected static final VarHandle CONSUMER_INDEX;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            PRODUCER_INDEX = lookup.findVarHandle(SpscProducerFields.class, "producerIndex", long.class);
+            CONSUMER_INDEX = lookup.findVarHandle(SpscConsumerFields.class, "consumerIndex", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    SpscConsumerFields(int capacity, WaitStrategy waitStrategy) {
+        super(capacity, waitStrategy);
+    }
+}
@@ -0,0 +1,69 @@
+import java.util.function.BooleanSupplier;
+
+/**
+ * Decides how a thread waits for a concurrent ring queue to become non-empty
+ * (a consumer in {@code take()}) or non-full (a producer in {@code put()}).
+ * Strategies trade latency against CPU usage: busy-spinning reacts fastest but
+ * burns a core, while blocking uses no CPU but pays for a wake-up.
+ *
+ * Each queue is given its own strategy when it is constructed. Queues call
+ * {@link #signalAll()} after every successful offer or poll, so strategies
+ * that put threads to sleep can wake them; for the other strategies it does
+ * nothing.
+ */
+public interface WaitStrategy {
+
+    /**
+     * Waits until the given condition holds.
+     *
+     * @param ready the condition to wait for; evaluated repeatedly
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void await(BooleanSupplier ready) throws InterruptedException;
+
+    /**
+     * Wakes threads waiting in {@link #await}, if this strategy puts them to
+     * sleep. Called by the queue after every successful offer or poll.
+     */
+    void signalAll();
+
+    /**
+     * Returns a strategy that spins on the condition with
+     * {@link Thread#onSpinWait()}, for the lowest latency.
+     *
+     * @return a busy-spin strategy.
+     */
+    static WaitStrategy busySpin() {
+        return BusySpinWaitStrategy.INSTANCE;
+    }
+
+    /**
+     * Returns a strategy that spins briefly, then yields the processor
+     * between checks.
+     *
+     * @return a yielding strategy.
+     */
+    static WaitStrategy yielding() {
+        return YieldingWaitStrategy.INSTANCE;
+    }
+
+    /**
+     * Returns a strategy that spins, then yields, then parks for
+     * progressively longer periods, up to one millisecond.
+     *
+     * @return a progressive spin-then-park strategy.
+     */
+    static WaitStrategy spinThenPark() {
+        return SpinThenParkWaitStrategy.INSTANCE;
+    }
+
+    /**
+     * Returns a strategy that blocks on a lock condition until signalled.
+     * The strategy holds per-queue state, so a new one is returned each time.
+     *
+     * @return a blocking strategy.
+     */
+    static WaitStrategy blocking() {
+        return new BlockingWaitStrategy();
+    }
+}
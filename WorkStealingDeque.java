@@ -0,0 +1,246 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * An unbounded work-stealing deque, after Chase and Lev's "Dynamic Circular
+ * Work-Stealing Deque" with the memory orderings of Lê, Pop, Cohen and
+ * Zappa Nardelli's "Correct and Efficient Work-Stealing for Weak Memory
+ * Models".
+ *
+ * One owner thread pushes and pops tasks at the bottom, in LIFO order; any
+ * number of thief threads steal from the top, in FIFO order, so they take the
+ * oldest and usually largest tasks. A push is a plain store plus a release
+ * store of {@code bottom}, with no atomic read-modify-write. A pop needs one
+ * StoreLoad fence, so that a thief cannot miss its decrement of
+ * {@code bottom}, and only competes with the thieves by compare-and-set when
+ * it takes the last task. Thieves claim a task by compare-and-set on
+ * {@code top}.
+ *
+ * Like {@link MyArrayQueue} in power-of-two mode, the tasks sit in a circular
+ * array indexed with a mask, and a full array is replaced by one twice its
+ * length. The old array is never written again, so a thief that read it
+ * before the replacement still finds its task there, and its compare-and-set
+ * on {@code top} decides whether it got it. Indices are longs that never wrap.
+ *
+ * Slots are not cleared after a task is taken: a thief may still read a slot
+ * after the owner has popped it, and a thief's clearing store could land on a
+ * task the owner has since pushed into the same slot. Up to one array's worth
+ * of taken tasks can therefore stay reachable until they are overwritten.
+ * Null tasks are not permitted, since null is the "nothing taken" result of
+ * {@link #pop()} and {@link #steal()}.
+ *
+ * @param <E> the type of tasks held in the deque
+ */
+public class WorkStealingDeque<E> extends WorkStealingThiefFields<E> {
+
+    // Padding after the thief fields, so nothing allocated next to the deque
+    // shares their cache line.
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+
+    /**
+     * Constructor: Sets up an empty deque of the specified initial capacity.
+     *
+     * @param capacity the initial capacity, rounded up to the next power of two
+     */
+    public WorkStealingDeque(int capacity) {
+        super(capacity);
+    }
+
+    /**
+     * Adds a task at the bottom of the deque, doubling the array if it is
+     * full. Only the owner thread may call this.
+     *
+     * @param e the task to add
+     * @throws NullPointerException  if the task is null.
+     * @throws IllegalStateException if the deque holds 2^30 tasks already.
+     */
+    public void push(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long b = bottom;
+        long t = (long) TOP.getAcquire(this);
+        E[] a = array;
+        if (b - t > a.length - 1) {
+            a = grow(a, t, b);
+        }
+        a[(int) b & (a.length - 1)] = e;
+        // Publish the task: a thief that sees the new bottom also sees it.
+        BOTTOM.setRelease(this, b + 1);
+    }
+
+    /**
+     * Removes and returns the task at the bottom of the deque, the one pushed
+     * most recently. Only the owner thread may call this.
+     *
+     * @return the bottom task, or null if the deque is empty or a thief took
+     *         the last task first.
+     */
+    public E pop() {
+        long b = bottom - 1;
+        E[] a = array;
+        BOTTOM.setOpaque(this, b);
+        // A thief that has not yet read the decremented bottom must see it
+        // before it reads top; otherwise both could take the last task.
+        VarHandle.fullFence();
+        long t = (long) TOP.getOpaque(this);
+        if (t > b) {
+            // Empty: restore bottom.
+            BOTTOM.setOpaque(this, b + 1);
+            return null;
+        }
+        E e = a[(int) b & (a.length - 1)];
+        if (t == b) {
+            // The last task: race the thieves for it.
+            if (!TOP.compareAndSet(this, t, t + 1)) {
+                e = null;
+            }
+            BOTTOM.setOpaque(this, b + 1);
+        }
+        return e;
+    }
+
+    /**
+     * Removes and returns the task at the top of the deque, the oldest one.
+     * May be called from any thread.
+     *
+     * @return the top task, or null if the deque is empty or another thread
+     *         took the task first.
+     */
+    public E steal() {
+        long t = (long) TOP.getAcquire(this);
+        // Pairs with the fence in pop(): either the owner sees our claim on
+        // top, or we see its decrement of bottom.
+        VarHandle.fullFence();
+        long b = (long) BOTTOM.getAcquire(this);
+        if (t >= b) {
+            return null;
+        }
+        E[] a = array;
+        E e = a[(int) t & (a.length - 1)];
+        if (!TOP.compareAndSet(this, t, t + 1)) {
+            // Another thief or the owner took it.
+            return null;
+        }
+        return e;
+    }
+
+    /**
+     * Returns the number of tasks in the deque. When called while other
+     * threads are active, the result is only a snapshot.
+     *
+     * @return the number of tasks.
+     */
+    public int size() {
+        long t = (long) TOP.getAcquire(this);
+        long b = (long) BOTTOM.getAcquire(this);
+        return (int) Math.max(0, b - t);
+    }
+
+    /**
+     * Check if the deque is empty. When called while other threads are
+     * active, the result is only a snapshot.
+     *
+     * @return true if the deque holds no tasks.
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the length of the current array, i.e. how many tasks the deque
+     * can hold before it has to grow.
+     *
+     * @return the current capacity of the deque.
+     */
+    public int capacity() {
+        return array.length;
+    }
+
+    /**
+     * Replaces the array with one twice its length, copying the tasks between
+     * top and bottom to the same indices in the new array. The old array is
+     * left as it is, for thieves still reading it.
+     *
+     * @param a the current, full array
+     * @param t the top index
+     * @param b the bottom index
+     * @return the new array.
+     * @throws IllegalStateException if the array is already as long as it can be.
+     */
+    private E[] grow(E[] a, long t, long b) {
+        if (a.length >= MyArrayQueue.MAX_POWER_OF_TWO_CAPACITY) {
+            throw new IllegalStateException("Deque is full");
+        }
+        int newLength = a.length * 2;
+        @SuppressWarnings("unchecked")
+        E[] newArray = (E[]) new Object[newLength];
+        for (long i = t; i < b; i++) {
+            newArray[(int) i & (newLength - 1)] = a[(int) i & (a.length - 1)];
+        }
+        // Release: a thief that reads the new array also sees the copied tasks.
+        array = newArray;
+        return newArray;
+    }
+}
+
+/**
+ * The fields written by the owner thread, with padding in front of them so
+ * they do not share a cache line with the object header or a preceding
+ * object.
+ */
+abstract class WorkStealingOwnerFields<E> {
+
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+
+    /** Index one past the bottom task; written only by the owner. */
+    protected long bottom;
+
+    /**
+     * An array to hold the tasks; its length is a power of two. Replaced only
+     * by the owner, and volatile so thieves see the copied tasks with it.
+     */
+    protected volatile E[] array;
+
+    @SuppressWarnings("unchecked")
+    WorkStealingOwnerFields(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be >= 1");
+        }
+        array = (E[]) new Object[MyArrayQueue.roundUpToPowerOfTwo(capacity)];
+    }
+}
+
+/**
+ * The field the thieves compete for, on its own cache line.
+ */
+abstract class WorkStealingThiefFields<E> extends WorkStealingOwnerFields<E> {
+
+    long q00, q01, q02, q03, q04, q05, q06, q07;
+    long q10, q11, q12, q13, q14, q15, q16, q17;
+
+    /** Index of the top task; advanced with CAS by thieves, and by the owner for the last task. */
+    protected volatile long top;
+
+    /** Access to the bottom index. */
+    protected static final VarHandle BOTTOM;
+
+    /** Access to the top index. */
+    protected static final VarHandle TOP;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            BOTTOM = lookup.findVarHandle(WorkStealingOwnerFields.class, "bottom", long.class);
+            TOP = lookup.findVarHandle(WorkStealingThiefFields.class, "top", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    WorkStealingThiefFields(int capacity) {
+        super(capacity);
+    }
+}
@@ -0,0 +1,36 @@
+import java.util.function.BooleanSupplier;
+
+/**
+ * A {@link WaitStrategy} that spins for a short while and then calls
+ * {@link Thread#yield()} between checks. It keeps latency low while letting
+ * other runnable threads use the core, but still shows as busy CPU time.
+ */
+public class YieldingWaitStrategy implements WaitStrategy {
+
+    /** The shared instance; the strategy has no state. */
+    static final YieldingWaitStrategy INSTANCE = new YieldingWaitStrategy();
+
+    /** How many times to spin before starting to yield. */
+    private static final int SPIN_TRIES = 100;
+
+    @Override
+    public void await(BooleanSupplier ready) throws InterruptedException {
+        int tries = 0;
+        while (!ready.getAsBoolean()) {
+            if (tries < SPIN_TRIES) {
+                tries++;
+                Thread.onSpinWait();
+            } else {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                Thread.yield();
+            }
+        }
+    }
+
+    @Override
+    public void signalAll() {
+        // Yielding threads notice the change themselves.
+    }
+}
@@ -0,0 +1,349 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Stream;
+
+/**
+ * The operations the benchmarks measure, over MyArrayQueue,
+ * SegmentedArrayQueue or a JDK {@link Queue}, so every implementation runs
+ * exactly the same benchmark code.
+ *
+ * Each JMH fork only ever creates one kind of adapter, so the calls through
+ * this class stay monomorphic and are inlined like direct calls.
+ */
+abstract class QueueAdapter {
+
+    /** Names accepted by {@link #create}, as used in the benchmark parameters. */
+    static final String MY_ARRAY_QUEUE = "MyArrayQueue";
+    static final String MY_ARRAY_QUEUE_POW2 = "MyArrayQueuePow2";
+    static final String SEGMENTED_ARRAY_QUEUE = "SegmentedArrayQueue";
+    static final String ARRAY_DEQUE = "ArrayDeque";
+    static final String ARRAY_BLOCKING_QUEUE = "ArrayBlockingQueue";
+    static final String CONCURRENT_LINKED_QUEUE = "ConcurrentLinkedQueue";
+    static final String LINKED_LIST = "LinkedList";
+
+    /**
+     * Adds an element to the tail.
+     *
+     * @param e the element to add
+     */
+    abstract void enqueue(Object e);
+
+    /**
+     * Removes and returns the front element.
+     *
+     * @return the removed element.
+     */
+    abstract Object dequeue();
+
+    /**
+     * Returns the front element without removing it.
+     *
+     * @return the front element, or null if the queue is empty.
+     */
+    abstract Object peek();
+
+    /**
+     * Returns a sequential Stream over the elements, front to back.
+     *
+     * @return the Stream.
+     */
+    abstract Stream<Object> stream();
+
+    /**
+     * Creates an empty queue of the named implementation.
+     *
+     * @param impl            one of the implementation names above
+     * @param initialCapacity the initial capacity
+     * @param maxElements     the most elements the benchmark will hold at once;
+     *                        ArrayBlockingQueue cannot grow, so it is sized to
+     *                        fit them
+     * @return the adapter.
+     */
+    static QueueAdapter create(String impl, int initialCapacity, int maxElements) {
+        switch (impl) {
+            case MY_ARRAY_QUEUE:
+                return new MyArrayQueueAdapter(initialCapacity, false);
+            case MY_ARRAY_QUEUE_POW2:
+                return new MyArrayQueueAdapter(initialCapacity, true);
+            case SEGMENTED_ARRAY_QUEUE:
+                // Grows a chunk at a time whatever the initial capacity, like the linked JDK queues.
+                return new SegmentedArrayQueueAdapter();
+            case ARRAY_DEQUE:
+                return new JdkQueueAdapter(new ArrayDeque<>(initialCapacity));
+            case ARRAY_BLOCKING_QUEUE:
+                return new JdkQueueAdapter(new ArrayBlockingQueue<>(Math.max(initialCapacity, maxElements)));
+            case CONCURRENT_LINKED_QUEUE:
+                return new JdkQueueAdapter(new ConcurrentLinkedQueue<>());
+            case LINKED_LIST:
+                return new JdkQueueAdapter(new LinkedList<>());
+            default:
+                throw new IllegalArgumentException("Unknown queue implementation: " + impl);
+        }
+    }
+
+    /**
+     * MyArrayQueue lives in the unnamed package, which code in a named package
+     * cannot import, so it is reached through method handles. The handles are
+     * static final constants, which the JIT compiles down to direct calls.
+     */
+    static final class MyArrayQueueAdapter extends QueueAdapter {
+
+        private static final Class<?> MY_ARRAY_QUEUE_CLASS;
+        private static final MethodHandle CONSTRUCTOR;
+        private static final MethodHandle ENQUEUE;
+        private static final MethodHandle DEQUEUE;
+        private static final MethodHandle PEEK;
+
+        static {
+            try {
+                Class<?> type = Class.forName("MyArrayQueue");
+                MY_ARRAY_QUEUE_CLASS = type;
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                CONSTRUCTOR = lookup.findConstructor(type, MethodType.methodType(void.class, int.class, boolean.class))
+                        .asType(MethodType.methodType(Object.class, int.class, boolean.class));
+                ENQUEUE = lookup.findVirtual(type, "enqueue", MethodType.methodType(void.class, Object.class))
+                        .asType(MethodType.methodType(void.class, Object.class, Object.class));
+                DEQUEUE = lookup.findVirtual(type, "dequeue", MethodType.methodType(Object.class))
+                        .asType(MethodType.methodType(Object.class, Object.class));
+                PEEK = lookup.findVirtual(type, "peek", MethodType.methodType(Object.class))
+                        .asType(MethodType.methodType(Object.class, Object.class));
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        /**
+         * Handles for the methods only the statistics and stream benchmarks
+         * use. They are looked up on first use, so the other benchmarks also
+         * run against older builds of MyArrayQueue, for comparison.
+         */
+        private static final class Extras {
+
+            static final MethodHandle ENABLE_STATS;
+            static final MethodHandle DISABLE_STATS;
+            static final MethodHandle TRIM_TO_SIZE;
+            static final MethodHandle STREAM;
+
+            static {
+                try {
+                    Class<?> type = MY_ARRAY_QUEUE_CLASS;
+                    MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                    ENABLE_STATS = lookup.findVirtual(type, "enableStats",
+                                    MethodType.methodType(Class.forName("QueueStats"), String.class))
+                            .asType(MethodType.methodType(Object.class, Object.class, String.class));
+                    DISABLE_STATS = lookup.findVirtual(type, "disableStats", MethodType.methodType(void.class))
+                            .asType(MethodType.methodType(void.class, Object.class));
+                    TRIM_TO_SIZE = lookup.findVirtual(type, "trimToSize", MethodType.methodType(void.class))
+                            .asType(MethodType.methodType(void.class, Object.class));
+                    STREAM = lookup.findVirtual(type, "stream", MethodType.methodType(Stream.class))
+                            .asType(MethodType.methodType(Stream.class, Object.class));
+                } catch (ReflectiveOperationException e) {
+                    throw new ExceptionInInitializerError(e);
+                }
+            }
+        }
+
+        /** The MyArrayQueue instance. */
+        private final Object queue;
+
+        MyArrayQueueAdapter(int initialCapacity, boolean powerOfTwo) {
+            try {
+                queue = (Object) CONSTRUCTOR.invokeExact(initialCapacity, powerOfTwo);
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        @Override
+        void enqueue(Object e) {
+            try {
+                ENQUEUE.invokeExact(queue, e);
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        @Override
+        Object dequeue() {
+            try {
+                return (Object) DEQUEUE.invokeExact(queue);
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        @Override
+        Object peek() {
+            try {
+                return (Object) PEEK.invokeExact(queue);
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Stream<Object> stream() {
+            try {
+                return (Stream<Object>) Extras.STREAM.invokeExact(queue);
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        /**
+         * Turns on the queue's operation counters and registers its MBean.
+         *
+         * @param name the name to register the queue under
+         * @return the QueueStats instance.
+         */
+        Object enableStats(String name) {
+            try {
+                return (Object) Extras.ENABLE_STATS.invokeExact(queue, name);
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        /** Turns the queue's operation counters off again. */
+        void disableStats() {
+            try {
+                Extras.DISABLE_STATS.invokeExact(queue);
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        /** Shrinks the backing array to fit the current elements. */
+        void trimToSize() {
+            try {
+                Extras.TRIM_TO_SIZE.invokeExact(queue);
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+
+    /**
+     * SegmentedArrayQueue, reached through method handles like MyArrayQueue,
+     * with its default chunk size and pool. It is looked up only when used,
+     * so the other adapters work against builds that do not have it.
+     */
+    static final class SegmentedArrayQueueAdapter extends QueueAdapter {
+
+        private static final MethodHandle CONSTRUCTOR;
+        private static final MethodHandle ENQUEUE;
+        private static final MethodHandle DEQUEUE;
+        private static final MethodHandle PEEK;
+        private static final MethodHandle STREAM;
+
+        static {
+            try {
+                Class<?> type = Class.forName("SegmentedArrayQueue");
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                CONSTRUCTOR = lookup.findConstructor(type, MethodType.methodType(void.class))
+                        .asType(MethodType.methodType(Object.class));
+                ENQUEUE = lookup.findVirtual(type, "enqueue", MethodType.methodType(void.class, Object.class))
+                        .asType(MethodType.methodType(void.class, Object.class, Object.class));
+                DEQUEUE = lookup.findVirtual(type, "dequeue", MethodType.methodType(Object.class))
+                        .asType(MethodType.methodType(Object.class, Object.class));
+                PEEK = lookup.findVirtual(type, "peek", MethodType.methodType(Object.class))
+                        .asType(MethodType.methodType(Object.class, Object.class));
+                STREAM = lookup.findVirtual(type, "stream", MethodType.methodType(Stream.class))
+                        .asType(MethodType.methodType(Stream.class, Object.class));
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        /** The SegmentedArrayQueue instance. */
+        private final Object queue;
+
+        SegmentedArrayQueueAdapter() {
+            try {
+                queue = (Object) CONSTRUCTOR.invokeExact();
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        @Override
+        void enqueue(Object e) {
+            try {
+                ENQUEUE.invokeExact(queue, e);
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        @Override
+        Object dequeue() {
+            try {
+                return (Object) DEQUEUE.invokeExact(queue);
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        @Override
+        Object peek() {
+            try {
+                return (Object) PEEK.invokeExact(queue);
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Stream<Object> stream() {
+            try {
+                return (Stream<Object>) STREAM.invokeExact(queue);
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+
+    /**
+     * A JDK queue, driven through the {@link Queue} interface with the
+     * methods that match MyArrayQueue: add, remove and peek.
+     */
+    static final class JdkQueueAdapter extends QueueAdapter {
+
+        /** The JDK queue. */
+        private final Queue<Object> queue;
+
+        JdkQueueAdapter(Queue<Object> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        void enqueue(Object e) {
+            queue.add(e);
+        }
+
+        @Override
+        Object dequeue() {
+            return queue.remove();
+        }
+
+        @Override
+        Object peek() {
+            return queue.peek();
+        }
+
+        @Override
+        Stream<Object> stream() {
+            return queue.stream();
+        }
+    }
+}
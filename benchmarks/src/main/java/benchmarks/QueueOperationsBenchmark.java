@@ -0,0 +1,127 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Single-threaded enqueue, dequeue and peek cost of MyArrayQueue against
+ * SegmentedArrayQueue and the JDK queues, in three workloads:
+ *
+ * <ul>
+ * <li>steady state: the queue holds {@code elements} elements and every
+ * operation is measured on its own, with the size kept constant;</li>
+ * <li>burst then drain: {@code elements} elements are enqueued and then all
+ * dequeued, into a queue that has already grown to fit them;</li>
+ * <li>grow heavy: the same burst into a brand-new queue of
+ * {@code initialCapacity}, so every doubling and copy is paid again.</li>
+ * </ul>
+ *
+ * The burst workloads report the time of one whole burst. Elements are
+ * preallocated, so no benchmark measures boxing.
+ *
+ * Run with {@code java -jar target/benchmarks.jar QueueOperationsBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class QueueOperationsBenchmark {
+
+    @Param({QueueAdapter.MY_ARRAY_QUEUE, QueueAdapter.MY_ARRAY_QUEUE_POW2, QueueAdapter.SEGMENTED_ARRAY_QUEUE,
+            QueueAdapter.ARRAY_DEQUE, QueueAdapter.ARRAY_BLOCKING_QUEUE, QueueAdapter.CONCURRENT_LINKED_QUEUE,
+            QueueAdapter.LINKED_LIST})
+    public String impl;
+
+    @Param({"16", "1024"})
+    public int initialCapacity;
+
+    @Param({"1000", "100000"})
+    public int elements;
+
+    /** The elements that are enqueued, created once. */
+    private Object[] values;
+
+    /** The queue used by the steady-state and burst-then-drain workloads. */
+    private QueueAdapter queue;
+
+    /** Element enqueued next by the steady-state benchmarks. */
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        values = new Object[elements];
+        for (int i = 0; i < elements; i++) {
+            values[i] = i;
+        }
+        queue = QueueAdapter.create(impl, initialCapacity, 2 * elements);
+        for (Object value : values) {
+            queue.enqueue(value);
+        }
+    }
+
+    /**
+     * One enqueue and one dequeue on a queue holding {@code elements}
+     * elements, so the front moves around the ring.
+     */
+    @Benchmark
+    public Object steadyStateEnqueueDequeue() {
+        queue.enqueue(values[next]);
+        next = next + 1 == elements ? 0 : next + 1;
+        return queue.dequeue();
+    }
+
+    /** One peek on a queue holding {@code elements} elements. */
+    @Benchmark
+    public Object steadyStatePeek() {
+        return queue.peek();
+    }
+
+    /**
+     * Enqueues {@code elements} elements and then dequeues them all, on top of
+     * the {@code elements} already held, into a queue that has already grown.
+     */
+    @Benchmark
+    public void burstThenDrain(Blackhole bh) {
+        burst(queue, bh);
+    }
+
+    /**
+     * Enqueues {@code elements} elements into a new queue of
+     * {@code initialCapacity} and then dequeues them all, so the queue grows
+     * from its initial capacity every time.
+     */
+    @Benchmark
+    public void growHeavy(Blackhole bh) {
+        burst(QueueAdapter.create(impl, initialCapacity, elements), bh);
+    }
+
+    /**
+     * Enqueues every element and then dequeues the same number.
+     *
+     * @param q  the queue
+     * @param bh consumes the dequeued elements
+     */
+    private void burst(QueueAdapter q, Blackhole bh) {
+        for (Object value : values) {
+            q.enqueue(value);
+        }
+        for (int i = 0; i < elements; i++) {
+            bh.consume(q.dequeue());
+        }
+    }
+}
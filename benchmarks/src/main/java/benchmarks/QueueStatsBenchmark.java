@@ -0,0 +1,146 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The cost of MyArrayQueue's JMX statistics: the same enqueue/dequeue and
+ * grow-heavy workloads as {@link QueueOperationsBenchmark}, with statistics
+ * off and on. With statistics off, the scores should match
+ * QueueOperationsBenchmark for MyArrayQueue on a build without statistics;
+ * to check, put that build's classes ahead of the jar on the classpath:
+ * {@code java -cp old-classes:target/benchmarks.jar org.openjdk.jmh.Main QueueOperationsBenchmark}.
+ *
+ * Run with {@code java -jar target/benchmarks.jar QueueStatsBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+public class QueueStatsBenchmark {
+
+    /** Gives every queue a distinct MBean name. */
+    private static final AtomicLong created = new AtomicLong();
+
+    @Param({"false", "true"})
+    public boolean stats;
+
+    @Param({"false", "true"})
+    public boolean powerOfTwo;
+
+    /** Elements held in steady state, and enqueued per grow-heavy burst. */
+    @Param({"1000", "100000"})
+    public int elements;
+
+    /** The elements that are enqueued, created once. */
+    private Object[] values;
+
+    /** The queue used by the steady-state workload. */
+    private QueueAdapter.MyArrayQueueAdapter queue;
+
+    /** Element enqueued next by the steady-state benchmark. */
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        values = new Object[elements];
+        for (int i = 0; i < elements; i++) {
+            values[i] = i;
+        }
+        queue = newQueue();
+        for (Object value : values) {
+            queue.enqueue(value);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (stats) {
+            queue.disableStats();
+        }
+    }
+
+    /** One enqueue and one dequeue on a queue holding {@code elements} elements. */
+    @Benchmark
+    public Object steadyStateEnqueueDequeue() {
+        queue.enqueue(values[next]);
+        next = next + 1 == elements ? 0 : next + 1;
+        return queue.dequeue();
+    }
+
+    /**
+     * Enqueues {@code elements} elements into an empty queue that has been
+     * trimmed to capacity 1, and then dequeues them all, so every doubling is
+     * counted and timed. The queue is long-lived, like a monitored queue in
+     * a service: registering an MBean per invocation would measure JMX rather
+     * than the queue.
+     */
+    @Benchmark
+    public void growHeavy(GrowState state, Blackhole bh) {
+        QueueAdapter.MyArrayQueueAdapter q = state.queue;
+        for (Object value : values) {
+            q.enqueue(value);
+        }
+        for (int i = 0; i < elements; i++) {
+            bh.consume(q.dequeue());
+        }
+    }
+
+    /**
+     * The queue used by growHeavy, shrunk back to capacity 1 before each
+     * invocation, outside the measured time.
+     */
+    @State(Scope.Thread)
+    public static class GrowState {
+
+        QueueAdapter.MyArrayQueueAdapter queue;
+
+        @Setup(Level.Trial)
+        public void setUp(QueueStatsBenchmark benchmark) {
+            queue = benchmark.newQueue();
+        }
+
+        @Setup(Level.Invocation)
+        public void shrink() {
+            queue.trimToSize();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown(QueueStatsBenchmark benchmark) {
+            if (benchmark.stats) {
+                queue.disableStats();
+            }
+        }
+    }
+
+    /**
+     * Creates an empty queue of capacity 16, with statistics enabled if the
+     * parameter says so.
+     *
+     * @return the queue.
+     */
+    QueueAdapter.MyArrayQueueAdapter newQueue() {
+        QueueAdapter.MyArrayQueueAdapter q = new QueueAdapter.MyArrayQueueAdapter(16, powerOfTwo);
+        if (stats) {
+            q.enableStats("benchmark-" + created.incrementAndGet());
+        }
+        return q;
+    }
+}
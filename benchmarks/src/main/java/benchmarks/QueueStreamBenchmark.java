@@ -0,0 +1,104 @@
+package benchmarks;
+
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sequential and parallel reductions over everything in a large queue,
+ * through each implementation's stream(). MyArrayQueue and ArrayDeque split
+ * their ranges exactly in half, and SegmentedArrayQueue does too after
+ * following its chunk links to the middle; ArrayBlockingQueue only splits by
+ * copying growing batches out of its iterator, which shows what an imprecise
+ * split costs a parallel stream.
+ *
+ * Each queue is filled to exactly its capacity after its front has been moved
+ * to the middle of the array, so the contents wrap around the end of the
+ * array and every split has to cope with the wrap point. SegmentedArrayQueue
+ * has no wrap point; its chunks simply follow one another.
+ *
+ * Parallel speedup is bounded by the number of cores the common ForkJoinPool
+ * gets; on a single core the parallel scores only show the splitting
+ * overhead. Run with {@code java -jar target/benchmarks.jar QueueStreamBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class QueueStreamBenchmark {
+
+    @Param({ QueueAdapter.MY_ARRAY_QUEUE, QueueAdapter.SEGMENTED_ARRAY_QUEUE, QueueAdapter.ARRAY_DEQUE,
+            QueueAdapter.ARRAY_BLOCKING_QUEUE })
+    public String impl;
+
+    @Param({ "false", "true" })
+    public boolean parallel;
+
+    /** Number of elements in the queue. */
+    @Param({ "10000000" })
+    public int elements;
+
+    /** The full queue, which the benchmarks only read. */
+    private QueueAdapter queue;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        queue = QueueAdapter.create(impl, elements, elements);
+        // Move the front to the middle of the array, then fill it.
+        for (int i = 0; i < elements / 2; i++) {
+            queue.enqueue(0L);
+        }
+        for (int i = 0; i < elements / 2; i++) {
+            queue.dequeue();
+        }
+        for (long i = 0; i < elements; i++) {
+            queue.enqueue(i);
+        }
+    }
+
+    /**
+     * Sums the elements, as when totalling the sizes of queued items.
+     *
+     * @return the sum.
+     */
+    @Benchmark
+    public long sum() {
+        return stream().mapToLong(e -> (Long) e).sum();
+    }
+
+    /**
+     * Finds the smallest element, as when looking for the earliest deadline
+     * among queued items.
+     *
+     * @return the smallest element.
+     */
+    @Benchmark
+    public Object min() {
+        return stream().min(Comparator.comparingLong(e -> (Long) e)).orElseThrow();
+    }
+
+    /**
+     * Returns the queue's stream, made parallel if the parameter says so.
+     *
+     * @return the Stream.
+     */
+    private Stream<Object> stream() {
+        Stream<Object> stream = queue.stream();
+        return parallel ? stream.parallel() : stream;
+    }
+}